@@ -0,0 +1,454 @@
+package ru.chervanev.net;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *       (BinaryProtocol).
+ *
+ *       (send):    
+ *  .   (md, copy, ...)  .
+ *    -    Integer,   intern.
+ *       BinaryProtocol.DATA_FRAME (download, upload, append).
+ */
+public class BinaryClient
+{
+	/**
+	 *   
+	 */
+	public interface EventListener
+	{
+		void onEvent(String message);
+	}
+
+	/**
+	 *    
+	 */
+	public static class Response
+	{
+		private int requestId;
+		private volatile byte status;
+		private volatile int value;
+		private volatile String text;
+		private volatile boolean disconnected;
+		private CountDownLatch done = new CountDownLatch(1);
+		//    (READ)     
+		private OutputStream target;
+		private volatile IOException targetFailure;
+
+		Response(int requestId)
+		{
+			this.requestId = requestId;
+		}
+
+		/**
+		 *  
+		 * @throws IOException      
+		 */
+		public Response await() throws IOException
+		{
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted");
+			}
+			if (disconnected)
+				throw new IOException("Disconnected");
+			return this;
+		}
+
+		public int getRequestId()
+		{
+			return requestId;
+		}
+
+		public byte getStatus()
+		{
+			return status;
+		}
+
+		public boolean isOk()
+		{
+			return status == BinaryProtocol.OK;
+		}
+
+		/**
+		 *   (   INTERN,     READ)
+		 */
+		public int getValue()
+		{
+			return value;
+		}
+
+		/**
+		 *      
+		 */
+		public String getText()
+		{
+			return text;
+		}
+	}
+
+	private Socket socket;
+	private DataOutputStream out;
+	private AtomicInteger lastId = new AtomicInteger();
+	private Map<Integer, Response> requests = new ConcurrentHashMap<Integer, Response>();
+	private volatile EventListener listener;
+	private volatile boolean closed;
+
+	/**
+	 *    
+	 * @throws IOException        
+	 */
+	public BinaryClient(String host, int port, String userName) throws IOException
+	{
+		socket = new Socket(host, port);
+		socket.setTcpNoDelay(true);
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		out.write(BinaryProtocol.MAGIC);
+		new Reader(new DataInputStream(new BufferedInputStream(socket.getInputStream()))).start();
+		Response hello = send(BinaryProtocol.HELLO, userName);
+		try {
+			hello.await();
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		if (!hello.isOk())
+		{
+			close();
+			throw new IOException(hello.getText());
+		}
+	}
+
+	public void setEventListener(EventListener listener)
+	{
+		this.listener = listener;
+	}
+
+	/**
+	 *     
+	 * @param arguments -     (String  Integer),  HELLO, INTERN  COMMAND - 
+	 */
+	public Response send(byte operation, Object... arguments) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream frame = new DataOutputStream(bytes);
+		int id = lastId.incrementAndGet();
+		frame.writeByte(operation);
+		frame.writeInt(id);
+		boolean paths = operation != BinaryProtocol.HELLO && operation != BinaryProtocol.INTERN && operation != BinaryProtocol.COMMAND;
+		for (Object argument : arguments)
+		{
+			if (!paths)
+				BinaryProtocol.writeString(frame, (String)argument);
+			else
+				writePath(frame, argument);
+		}
+		return send(new Response(id), bytes, null, 0, 0);
+	}
+
+	private static void writePath(DataOutputStream frame, Object path) throws IOException
+	{
+		if (path instanceof Integer)
+		{
+			frame.writeByte(BinaryProtocol.PATH_ID);
+			frame.writeInt((Integer)path);
+		}
+		else
+		{
+			frame.writeByte(BinaryProtocol.PATH_NAME);
+			BinaryProtocol.writeString(frame, (String)path);
+		}
+	}
+
+	/**
+	 *  :   , ,  (   )
+	 */
+	private Response send(Response response, ByteArrayOutputStream header, byte[] data, int from, int count) throws IOException
+	{
+		//    :       write
+		requests.put(response.requestId, response);
+		synchronized (out)
+		{
+			out.writeInt(header.size() + count);
+			header.writeTo(out);
+			if (count != 0)
+				out.write(data, from, count);
+			out.flush();
+		}
+		if (closed)
+			fail(response);
+		return response;
+	}
+
+	/**
+	 *     
+	 */
+	public Response call(byte operation, Object... arguments) throws IOException
+	{
+		return send(operation, arguments).await();
+	}
+
+	/**
+	 *    
+	 * @return     
+	 */
+	public int intern(String path) throws IOException
+	{
+		Response response = call(BinaryProtocol.INTERN, path);
+		if (!response.isOk())
+			throw new IOException(response.getText());
+		return response.getValue();
+	}
+
+	/**
+	 *     
+	 */
+	public Response command(String line) throws IOException
+	{
+		return call(BinaryProtocol.COMMAND, line);
+	}
+
+	public Response md(Object path) throws IOException
+	{
+		return call(BinaryProtocol.MD, path);
+	}
+
+	public Response rd(Object path) throws IOException
+	{
+		return call(BinaryProtocol.RD, path);
+	}
+
+	public Response delTree(Object path) throws IOException
+	{
+		return call(BinaryProtocol.DELTREE, path);
+	}
+
+	public Response mf(Object path) throws IOException
+	{
+		return call(BinaryProtocol.MF, path);
+	}
+
+	public Response del(Object path) throws IOException
+	{
+		return call(BinaryProtocol.DEL, path);
+	}
+
+	public Response lock(Object path) throws IOException
+	{
+		return call(BinaryProtocol.LOCK, path);
+	}
+
+	public Response unlock(Object path) throws IOException
+	{
+		return call(BinaryProtocol.UNLOCK, path);
+	}
+
+	public Response copy(Object source, Object destination) throws IOException
+	{
+		return call(BinaryProtocol.COPY, source, destination);
+	}
+
+	public Response move(Object source, Object destination) throws IOException
+	{
+		return call(BinaryProtocol.MOVE, source, destination);
+	}
+
+	public Response cd(Object path) throws IOException
+	{
+		return call(BinaryProtocol.CD, path);
+	}
+
+	public Response print() throws IOException
+	{
+		return call(BinaryProtocol.PRINT);
+	}
+
+	/**
+	 *      offset,   length  (Long.MAX_VALUE -   )
+	 * @param target -  
+	 * @throws IOException -        target
+	 */
+	public Response download(Object path, long offset, long length, OutputStream target) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream frame = new DataOutputStream(bytes);
+		Response response = new Response(lastId.incrementAndGet());
+		response.target = target;
+		frame.writeByte(BinaryProtocol.READ);
+		frame.writeInt(response.requestId);
+		writePath(frame, path);
+		frame.writeLong(offset);
+		frame.writeLong(length);
+		send(response, bytes, null, 0, 0).await();
+		if (response.targetFailure != null)
+			throw response.targetFailure;
+		return response;
+	}
+
+	/**
+	 *       offset.        .
+	 * @return         
+	 */
+	public Response upload(Object path, long offset, byte[] data, int from, int count) throws IOException
+	{
+		return transfer(BinaryProtocol.WRITE, path, offset, data, from, count);
+	}
+
+	/**
+	 *     
+	 */
+	public Response append(Object path, byte[] data, int from, int count) throws IOException
+	{
+		return transfer(BinaryProtocol.APPEND, path, 0, data, from, count);
+	}
+
+	private Response transfer(byte operation, Object path, long offset, byte[] data, int from, int count) throws IOException
+	{
+		List<Response> responses = new ArrayList<Response>();
+		int position = 0;
+		do
+		{
+			int size = Math.min(count - position, BinaryProtocol.DATA_FRAME);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream frame = new DataOutputStream(bytes);
+			Response response = new Response(lastId.incrementAndGet());
+			frame.writeByte(operation);
+			frame.writeInt(response.requestId);
+			writePath(frame, path);
+			if (operation == BinaryProtocol.WRITE)
+				frame.writeLong(offset + position);
+			responses.add(send(response, bytes, data, from + position, size));
+			position += size;
+		} while (position < count);
+		Response result = null;
+		for (Response response : responses)
+		{
+			response.await();
+			if (result == null || result.isOk())
+				result = response;
+		}
+		return result;
+	}
+
+	/**
+	 *  .      .
+	 */
+	public void close()
+	{
+		closed = true;
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// nothing to do
+		}
+		for (Response response : requests.values())
+			fail(response);
+	}
+
+	private void fail(Response response)
+	{
+		if (requests.remove(response.requestId) != null)
+		{
+			response.disconnected = true;
+			response.done.countDown();
+		}
+	}
+
+	/**
+	 *    
+	 */
+	private class Reader extends Thread
+	{
+		private DataInputStream in;
+		//    
+		private byte[] buffer;
+
+		Reader(DataInputStream in)
+		{
+			this.in = in;
+			setDaemon(true);
+		}
+
+		public void run()
+		{
+			try {
+				while (true)
+				{
+					int length = in.readInt();
+					if (length < 0 || length > BinaryProtocol.MAX_FRAME)
+						break;
+					byte type = in.readByte();
+					if (type == BinaryProtocol.RESPONSE)
+					{
+						Response response = requests.remove(in.readInt());
+						byte status = in.readByte();
+						int value = in.readInt();
+						String text = BinaryProtocol.readString(in);
+						if (response != null)
+						{
+							response.status = status;
+							response.value = value;
+							response.text = text;
+							response.done.countDown();
+						}
+					}
+					else if (type == BinaryProtocol.DATA)
+					{
+						Response response = requests.get(in.readInt());
+						in.readLong();
+						receive(response, length - 13);
+					}
+					else if (type == BinaryProtocol.EVENT)
+					{
+						String text = BinaryProtocol.readString(in);
+						EventListener target = listener;
+						if (target != null)
+							target.onEvent(text);
+					}
+					else
+						in.skipBytes(length - 1);
+				}
+			} catch (IOException e) {
+				//  
+			}
+			close();
+		}
+
+		/**
+		 *    DATA  .      .
+		 */
+		private void receive(Response response, int count) throws IOException
+		{
+			if (buffer == null)
+				buffer = new byte[1 << 16];
+			while (count > 0)
+			{
+				int size = Math.min(count, buffer.length);
+				in.readFully(buffer, 0, size);
+				count -= size;
+				if (response == null || response.target == null || response.targetFailure != null)
+					continue;
+				try {
+					response.target.write(buffer, 0, size);
+				} catch (IOException e) {
+					response.targetFailure = e;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package ru.chervanev.net;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ *        .
+ *
+ *      MAGIC,     : int ,  .
+ * : byte  , int  ,  .
+ *   : byte PATH_NAME  ,  byte PATH_ID  int ,   INTERN.
+ * : byte RESPONSE, int  , byte , int ,   .
+ * : byte EVENT, .
+ *  :  READ - , long , long ;  -  DATA (byte DATA,
+ * int  , long , ),  RESPONSE.  WRITE - , long ,
+ * APPEND - ;    .
+ * : int   ,  UTF-8.  - big-endian.
+ *
+ *    ru.chervanev.vfs.BinaryProtocol  .
+ */
+public class BinaryProtocol
+{
+	public static final byte[] MAGIC = {0, 'V', 'F', 'S', 1};
+	//   
+	public static final int MAX_FRAME = 16 << 20;
+	//      
+	public static final int DATA_FRAME = 1 << 20;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// 
+	public static final byte HELLO = 1;
+	public static final byte COMMAND = 2;
+	public static final byte INTERN = 3;
+	public static final byte MD = 10;
+	public static final byte RD = 11;
+	public static final byte DELTREE = 12;
+	public static final byte MF = 13;
+	public static final byte DEL = 14;
+	public static final byte LOCK = 15;
+	public static final byte UNLOCK = 16;
+	public static final byte COPY = 17;
+	public static final byte MOVE = 18;
+	public static final byte CD = 19;
+	public static final byte PRINT = 20;
+	public static final byte READ = 21;
+	public static final byte WRITE = 22;
+	public static final byte APPEND = 23;
+
+	//  
+	public static final byte RESPONSE = (byte)0x80;
+	public static final byte EVENT = (byte)0x81;
+	public static final byte DATA = (byte)0x82;
+
+	//  
+	public static final byte OK = 0;
+	public static final byte ERROR = 1;
+	public static final byte UNKNOWN_OPERATION = 2;
+	public static final byte BAD_REQUEST = 3;
+	public static final byte NOT_REGISTERED = 4;
+	public static final byte USER_EXISTS = 5;
+
+	//  -
+	public static final byte PATH_NAME = 0;
+	public static final byte PATH_ID = 1;
+
+	/**
+	 *  
+	 */
+	public static String readString(DataInputStream in) throws IOException
+	{
+		int length = in.readInt();
+		if (length < 0 || length > MAX_FRAME)
+			throw new IOException("Invalid string length");
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 *  
+	 */
+	public static void writeString(DataOutputStream out, String text) throws IOException
+	{
+		byte[] bytes = text.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+}
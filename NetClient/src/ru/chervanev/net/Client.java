@@ -5,13 +5,19 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * -  
  *
- *   Connect  Quit
+ *   Connect, Pipeline, Pending  Quit
  *      ( )
  *      .
+ *
+ *   pipeline ( tagged)     ,
+ *     ,      .
  */
 public class Client {
 
@@ -25,6 +31,10 @@ public class Client {
 	private PrintWriter netOut;
 	//   
 	private NetReader netReader;
+	//  pipeline:     ,  
+	private volatile boolean tagged = false;
+	private AtomicInteger lastId = new AtomicInteger();
+	private Map<String, String> requests = new ConcurrentHashMap<String, String>();
 
 	/**
 	 *  
@@ -132,6 +142,28 @@ public class Client {
 				println("Use command connect:\nconnect host[:port] UserName");
 				
 			return true;			
+		} else if (cmdName.equals("pipeline"))
+		{
+			if (cmdParam.equalsIgnoreCase("on"))
+			{
+				//     tagged
+				if (!tagged && processRemoteCommand("protocol tagged"))
+					tagged = true;
+			} else if (cmdParam.equalsIgnoreCase("off"))
+			{
+				//    ,    
+				if (tagged)
+					processRemoteCommand("protocol text");
+			} else
+				println("Use command pipeline:\npipeline on|off");
+			return true;
+		} else if (cmdName.equals("pending"))
+		{
+			// ,        
+			for (Map.Entry<String, String> request : requests.entrySet())
+				println(String.format("[%s] %s", request.getKey(), request.getValue()));
+			println(String.format("%d command(s) in flight", requests.size()));
+			return true;
 		}	
 		return false;
 	}
@@ -167,6 +199,8 @@ public class Client {
 		try {
 			disconnect();
 			socket = new Socket(server, port);
+			tagged = false;
+			requests.clear();
 			netOut = new PrintWriter(socket.getOutputStream());
 			netReader = new NetReader(socket);
 			return true;
@@ -181,18 +215,72 @@ public class Client {
 	/**
 	 *     
 	 * @param command -  
+	 * @return true   
 	 */
-	private void processRemoteCommand(String command)
+	private boolean processRemoteCommand(String command)
 	{
 		if (socket != null)
 		{
+			if (tagged)
+			{
+				//    :       println
+				String id = Integer.toString(lastId.incrementAndGet());
+				requests.put(id, command);
+				command = id + " " + command;
+			}
 			netOut.println(command);
 			netOut.flush();			
+			return true;
 		}
 		else 
 		{
 			println("Cannot invoke command in offline mode.");
+			return false;
+		}
+	}
+	
+	/**
+	 *  ,   
+	 * @param line -   text  tagged
+	 */
+	private void processServerLine(String line)
+	{
+		if (!tagged)
+		{
+			println(line);
+			return;
+		}
+		// 
+		if (line.startsWith("* "))
+		{
+			println(line.substring(2));
+			return;
+		}
+		int i = line.indexOf(' ');
+		if (i <= 0)
+		{
+			println(line);
+			return;
+		}
+		if (line.charAt(i - 1) == ':')
+		{
+			//  : "<id>: <>"
+			println(line.substring(i + 1));
+			return;
+		}
+		//  : "<id> OK"  "<id> ERR <>"
+		String id = line.substring(0, i);
+		String status = line.substring(i + 1);
+		String command = requests.remove(id);
+		if (command == null)
+		{
+			println(line);
+			return;
 		}
+		if (status.startsWith("ERR"))
+			println(String.format("[%s] %s: %s", id, command, status.substring(3).trim()));
+		else if (command.equalsIgnoreCase("protocol text"))
+			tagged = false;
 	}
 	
 	/**
@@ -230,7 +318,7 @@ public class Client {
 					{
 						break;
 					}
-					println(line);				
+					processServerLine(line);
 				}
 				if (socket!=null)
 					disconnect();
@@ -0,0 +1,509 @@
+package ru.chervanev.vfs;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *     ,     -.
+ *
+ *    ,  ,      (ISession).
+ *             .
+ *
+ *            ,
+ *         .
+ *
+ *   tagged (  protocol tagged)     :
+ *   - "<id> <>",   - "<id>: <>",
+ *    - "<id> OK"  "<id> ERR <>",  - "* <>".
+ *
+ *    (BinaryProtocol)    .
+ *        DATA    ,  :
+ *              .
+ */
+public abstract class AbstractSession implements ISession
+{
+	protected NetworkServer server;
+	// 
+	private String userName;
+	//   
+	protected VFSExecuterAdapter executer;
+	//   
+	protected OutboundQueue outbound;
+	private Charset charset = Charset.defaultCharset();
+	//   ,  (     )
+	private final int notifyWindow;
+	//   ,    
+	private ConcurrentLinkedQueue<String> events = new ConcurrentLinkedQueue<String>();
+	//    (    )     
+	private AtomicInteger eventCount = new AtomicInteger();
+	private AtomicInteger eventsSkipped = new AtomicInteger();
+	private AtomicBoolean eventsScheduled = new AtomicBoolean(false);
+	//  tagged   ,   commandThread
+	private volatile boolean tagged;
+	private volatile String requestTag;
+	private volatile Thread commandThread;
+	//  :  ,   INTERN,      
+	private volatile boolean binary;
+	private ArrayList<String> internedPaths;
+	private HashMap<String, Integer> internedIds;
+	private StringBuilder response;
+	private Runnable eventsTask = new Runnable() {
+		public void run()
+		{
+			flushEvents();
+		}
+	};
+
+	public AbstractSession(NetworkServer server)
+	{
+		this.server = server;
+		VFSProperties properties = server.getProperties();
+		outbound = new OutboundQueue(properties.getOutboundLimit(), properties.getSlowConsumerPolicy());
+		notifyWindow = properties.getNotifyWindow();
+	}
+
+	/**
+	 *     
+	 */
+	protected void createExecuter() throws Exception
+	{
+		executer = new VFSExecuterAdapter(this);
+	}
+
+	/**
+	 *     
+	 * @param name -  ,  
+	 * @return true    
+	 */
+	protected boolean register(String name)
+	{
+		userName = name;
+		try {
+			server.registerUser(this);
+		} catch (NetworkServer.EAlreadyUserExists e) {
+			userName = null;
+			notifySession(e.getMessage());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 *   .    .
+	 */
+	protected void executeCommand(String command)
+	{
+		if (tagged)
+		{
+			executeTagged(command);
+			return;
+		}
+		try {
+			executer.execute(command);
+		} catch (Exception e) {
+			notifySession(e.getMessage());
+		}
+	}
+
+	/**
+	 *    tagged: "<id> <>".
+	 *    "<id> OK"  "<id> ERR <>".
+	 */
+	private void executeTagged(String line)
+	{
+		line = line.trim();
+		if (line.isEmpty())
+			return;
+		int i = 0;
+		while (i < line.length() && !Character.isWhitespace(line.charAt(i)))
+			i++;
+		String tag = line.substring(0, i);
+		String status = " OK";
+		requestTag = tag;
+		commandThread = Thread.currentThread();
+		try {
+			executer.execute(line.substring(i));
+		} catch (Exception e) {
+			status = " ERR " + e.getMessage();
+		} finally {
+			commandThread = null;
+			requestTag = null;
+		}
+		outbound.add(encodeLine(tag + status));
+		flush();
+	}
+
+	/**
+	 *      (  )
+	 */
+	protected void setBinary()
+	{
+		binary = true;
+		internedPaths = new ArrayList<String>();
+		internedIds = new HashMap<String, Integer>();
+	}
+
+	protected boolean isBinary()
+	{
+		return binary;
+	}
+
+	/**
+	 *    .     .
+	 * @return false        
+	 */
+	protected boolean executeFrame(byte[] frame)
+	{
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+		int requestId = 0;
+		byte status = BinaryProtocol.OK;
+		int value = 0;
+		boolean keep = true;
+		response = new StringBuilder();
+		commandThread = Thread.currentThread();
+		try {
+			byte operation = in.readByte();
+			requestId = in.readInt();
+			if (operation == BinaryProtocol.HELLO)
+			{
+				String name = BinaryProtocol.readString(in);
+				if (userName != null)
+				{
+					status = BinaryProtocol.BAD_REQUEST;
+					response.append("User is already registered");
+				}
+				else if (!register(name))
+				{
+					status = BinaryProtocol.USER_EXISTS;
+					keep = false;
+				}
+			}
+			else if (userName == null)
+			{
+				status = BinaryProtocol.NOT_REGISTERED;
+				response.append("User is not registered");
+			}
+			else if (operation == BinaryProtocol.INTERN)
+				value = intern(BinaryProtocol.readString(in));
+			else if (operation == BinaryProtocol.COMMAND)
+				executer.execute(BinaryProtocol.readString(in));
+			else if (operation == BinaryProtocol.READ)
+			{
+				String path = BinaryProtocol.readPath(in, internedPaths);
+				long offset = in.readLong();
+				long length = in.readLong();
+				value = sendData(requestId, offset, executer.download(path, offset, length));
+			}
+			else if (operation == BinaryProtocol.WRITE || operation == BinaryProtocol.APPEND)
+			{
+				String path = BinaryProtocol.readPath(in, internedPaths);
+				long offset = operation == BinaryProtocol.WRITE ? in.readLong() : 0;
+				//    
+				int start = frame.length - in.available();
+				ByteBuffer data = ByteBuffer.wrap(frame, start, frame.length - start);
+				if (operation == BinaryProtocol.WRITE)
+					executer.upload(path, offset, data);
+				else
+					executer.upload(path, data);
+			}
+			else
+			{
+				String name = BinaryProtocol.commandName(operation);
+				if (name == null)
+				{
+					status = BinaryProtocol.UNKNOWN_OPERATION;
+					response.append(String.format("Operation %d is not supported", operation));
+				}
+				else
+				{
+					String[] args = new String[BinaryProtocol.pathCount(operation)];
+					for (int i = 0; i < args.length; i++)
+						args[i] = BinaryProtocol.readPath(in, internedPaths);
+					executer.execute(name, args);
+				}
+			}
+		} catch (IOException e) {
+			status = BinaryProtocol.BAD_REQUEST;
+			response.setLength(0);
+			response.append(e.getMessage() != null ? e.getMessage() : "Malformed request");
+		} catch (Exception e) {
+			status = BinaryProtocol.ERROR;
+			if (response.length() != 0)
+				response.append('\n');
+			response.append(e.getMessage());
+		} finally {
+			commandThread = null;
+		}
+		outbound.add(BinaryProtocol.response(requestId, status, value, response.toString()));
+		response = null;
+		flush();
+		return keep;
+	}
+
+	/**
+	 *        DATA (  ).
+	 *       .
+	 * @return  
+	 */
+	private int sendData(int requestId, long offset, final Content.Slices slices)
+	{
+		ByteBuffer[] data = slices.getBuffers();
+		if (data.length == 0)
+			slices.release();
+		Runnable done = new Runnable() {
+			public void run()
+			{
+				slices.release();
+			}
+		};
+		int frames = 0;
+		int from = 0;
+		while (from < data.length)
+		{
+			int to = from;
+			int length = 0;
+			while (to < data.length && length + data[to].remaining() <= BinaryProtocol.DATA_FRAME)
+				length += data[to++].remaining();
+			ByteBuffer[] parts = new ByteBuffer[to - from + 1];
+			parts[0] = BinaryProtocol.dataHeader(requestId, offset, length);
+			System.arraycopy(data, from, parts, 1, to - from);
+			outbound.add(parts, to == data.length ? done : null);
+			offset += length;
+			frames++;
+			from = to;
+		}
+		return frames;
+	}
+
+	/**
+	 *    ( )
+	 */
+	private int intern(String path)
+	{
+		Integer id = internedIds.get(path);
+		if (id == null)
+		{
+			id = internedPaths.size();
+			internedPaths.add(path);
+			internedIds.put(path, id);
+		}
+		return id;
+	}
+
+	/**
+	 *   
+	 */
+	@Override
+	public void setProtocol(String protocol) throws FileSystemException
+	{
+		if (binary)
+			throw new FileSystemException("Protocol cannot be changed in binary mode");
+		if (protocol.equalsIgnoreCase("tagged"))
+			tagged = true;
+		else if (protocol.equalsIgnoreCase("text"))
+			tagged = false;
+		else
+			throw new FileSystemException(String.format("Protocol %s is not supported", protocol));
+	}
+
+	/**
+	 *        
+	 */
+	protected abstract void flush();
+
+	/**
+	 *       
+	 */
+	protected abstract void disconnect();
+
+	/**
+	 *     
+	 */
+	protected ByteBuffer encode(String message)
+	{
+		if (binary)
+			return BinaryProtocol.event(message);
+		if (!tagged)
+			return encodeLine(message);
+		//   tagged    :     
+		String prefix;
+		String tag = requestTag;
+		if (tag != null && commandThread == Thread.currentThread())
+			prefix = tag + ": ";
+		else
+			prefix = "* ";
+		StringBuilder sb = new StringBuilder();
+		int start = 0;
+		while (start < message.length())
+		{
+			int end = message.indexOf('\n', start);
+			if (end == -1)
+				end = message.length();
+			sb.append(prefix);
+			sb.append(message, start, end);
+			sb.append(System.lineSeparator());
+			start = end + 1;
+		}
+		if (sb.length() == 0)
+			sb.append(prefix).append(System.lineSeparator());
+		return ByteBuffer.wrap(sb.toString().getBytes(charset));
+	}
+
+	/**
+	 *     
+	 */
+	protected ByteBuffer encodeLine(String line)
+	{
+		return ByteBuffer.wrap((line + System.lineSeparator()).getBytes(charset));
+	}
+
+	/**
+	 *     (  )
+	 * @return   null,   
+	 */
+	protected ByteBuffer nextMessage()
+	{
+		while (true)
+		{
+			ByteBuffer message = outbound.poll();
+			if (message != OutboundQueue.SKIPPED)
+				return message;
+			//      
+			int skipped = outbound.takeSkipped();
+			if (skipped != 0)
+				return encode(String.format("%d notification(s) skipped", skipped));
+		}
+	}
+
+	@Override
+	public String getUserName()
+	{
+		return userName;
+	}
+
+	/**
+	 *   
+	 */
+	@Override
+	public void notifySession(String message)
+	{
+		if (binary && commandThread == Thread.currentThread())
+		{
+			//       
+			if (response.length() != 0)
+				response.append('\n');
+			response.append(message);
+			executer.checkDeletion();
+			return;
+		}
+		outbound.add(encode(message));
+		flush();
+		// -    ,  :
+		executer.checkDeletion();
+	}
+
+	/**
+	 *    .    :
+	 *       .
+	 */
+	public void post(String message)
+	{
+		if (outbound.offer(encode(message)))
+			flush();
+		else
+			disconnect();
+		// -    ,  :
+		executer.checkDeletion();
+	}
+
+	/**
+	 *      .
+	 *  ,        .
+	 * ,     ,    .
+	 *      ,   ,   
+	 *      .
+	 * @param paths -     
+	 */
+	public void post(String message, String[] paths)
+	{
+		if (!executer.isSubscribed(paths))
+			return;
+		if (notifyWindow <= 0)
+		{
+			post(message);
+			return;
+		}
+		if (eventCount.incrementAndGet() <= outbound.getLimit())
+			events.add(message);
+		else
+		{
+			eventCount.decrementAndGet();
+			switch (outbound.getPolicy())
+			{
+			case DISCONNECT:
+				disconnect();
+				return;
+			case COALESCE:
+				eventsSkipped.incrementAndGet();
+				break;
+			default:
+				return;
+			}
+		}
+		if (eventsScheduled.compareAndSet(false, true))
+			server.schedule(eventsTask, notifyWindow);
+	}
+
+	/**
+	 *  ,    
+	 */
+	private void flushEvents()
+	{
+		// ,    ,   
+		eventsScheduled.set(false);
+		StringBuilder sb = new StringBuilder();
+		String event;
+		while ((event = events.poll()) != null)
+		{
+			eventCount.decrementAndGet();
+			if (sb.length() != 0)
+				sb.append(System.lineSeparator());
+			sb.append(event);
+		}
+		int skipped = eventsSkipped.getAndSet(0);
+		if (skipped != 0)
+		{
+			if (sb.length() != 0)
+				sb.append(System.lineSeparator());
+			sb.append(String.format("%d notification(s) skipped", skipped));
+		}
+		if (sb.length() != 0)
+			post(sb.toString());
+	}
+
+	/**
+	 *    
+	 */
+	@Override
+	public void notifySystem(String message)
+	{
+		server.notifySystem(message, this);
+	}
+
+	/**
+	 *        
+	 */
+	@Override
+	public void notifySystem(String message, String[] paths)
+	{
+		server.notifySystem(message, paths, this);
+	}
+}
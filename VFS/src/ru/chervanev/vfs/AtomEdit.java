@@ -1,40 +1,126 @@
 package ru.chervanev.vfs;
 
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- *           
+ *       ( IS, IX, S, X).
+ *
+ *    -     .    
+ *    (ReentrantLock),    ,      .
+ *      HierarchyLock.
  */
 public abstract class AtomEdit 
 {
-	private AtomicBoolean isEditing = new AtomicBoolean(false);
+	private static final int STRIPES = 64;
+	private static final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+	private static final Condition[] released = new Condition[STRIPES];
+	private static final AtomicLong serials = new AtomicLong();
+
+	static
+	{
+		for (int i = 0; i < STRIPES; i++)
+		{
+			stripes[i] = new ReentrantLock();
+			released[i] = stripes[i].newCondition();
+		}
+	}
+
+	//  :      
+	private final long serial = serials.incrementAndGet();
+	//      (HierarchyLock.Mode.ordinal())
+	private final int[] granted = new int[4];
 	
 	public abstract String getName();
+
+	/**
+	 *   
+	 */
+	public abstract String getFullName();
 	
 	/**
-	 *  .
-	 * 
-	 *  ,            .
-	 *   ,     endUpdate    beginUpdate .
+	 *   (null     )
+	 */
+	public abstract Directory getParent();
+
+	/**
+	 *    (     )
 	 */
-	public void beginUpdate() throws FileSystemException
+	public boolean isRoot()
 	{
-		if (!isEditing.compareAndSet(false, true))
-		{
+		return false;
+	}
+
+	long getSerial()
+	{
+		return serial;
+	}
+
+	/**
+	 *    mode     deadline (System.nanoTime)
+	 * @throws FileSystemException -       
+	 */
+	void acquire(HierarchyLock.Mode mode, long deadline) throws FileSystemException
+	{
+		int stripe = (int)(serial % STRIPES);
+		ReentrantLock lock = stripes[stripe];
+		lock.lock();
+		try {
+			while (!isCompatible(mode))
+			{
+				long left = deadline - System.nanoTime();
+				if (left <= 0)
+					throw new FileSystemException(String.format("Object %s is being edited by another user", getName()));
+				released[stripe].await(left, TimeUnit.NANOSECONDS);
+			}
+			granted[mode.ordinal()]++;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 			throw new FileSystemException(String.format("Object %s is being edited by another user", getName()));
+		} finally {
+			lock.unlock();
 		}
 	}
+
 	/**
-	 *  .       beginUpdate.
+	 *    mode
 	 */
-	public void endUpdate()
+	void release(HierarchyLock.Mode mode)
 	{
-		isEditing.compareAndSet(true, false);
+		int stripe = (int)(serial % STRIPES);
+		ReentrantLock lock = stripes[stripe];
+		lock.lock();
+		try {
+			granted[mode.ordinal()]--;
+			released[stripe].signalAll();
+		} finally {
+			lock.unlock();
+		}
 	}
 	
+	private boolean isCompatible(HierarchyLock.Mode mode)
+	{
+		for (HierarchyLock.Mode held : HierarchyLock.Mode.values())
+			if (granted[held.ordinal()] != 0 && !mode.isCompatible(held))
+				return false;
+		return true;
+	}
+
+	/**
+	 *  :   S  X
+	 */
 	public boolean isEditing()
 	{
-		return isEditing.get();
+		int stripe = (int)(serial % STRIPES);
+		ReentrantLock lock = stripes[stripe];
+		lock.lock();
+		try {
+			return granted[HierarchyLock.Mode.S.ordinal()] != 0 || granted[HierarchyLock.Mode.X.ordinal()] != 0;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 }
@@ -0,0 +1,220 @@
+package ru.chervanev.vfs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ *     .
+ *
+ *      MAGIC (      
+ *  ),     : int ,  .
+ *
+ * : byte  , int  ,  .
+ *   : byte PATH_NAME  ,  byte PATH_ID  int ,   INTERN.
+ * : byte RESPONSE, int  , byte , int ,   .
+ * : byte EVENT, .
+ *
+ *  :  READ - , long , long ;   
+ * DATA (byte DATA, int  , long ,  ,   DATA_FRAME),
+ *     -   DATA.  DATA      .
+ *  WRITE - , long , APPEND - ;    .
+ *
+ * : int   ,  UTF-8.  - big-endian.
+ *
+ *      NetClient (ru.chervanev.net.BinaryProtocol).
+ */
+public class BinaryProtocol
+{
+	public static final byte[] MAGIC = {0, 'V', 'F', 'S', 1};
+	//   
+	public static final int MAX_FRAME = 16 << 20;
+	//       DATA
+	public static final int DATA_FRAME = 1 << 20;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// 
+	public static final byte HELLO = 1;
+	public static final byte COMMAND = 2;
+	public static final byte INTERN = 3;
+	public static final byte MD = 10;
+	public static final byte RD = 11;
+	public static final byte DELTREE = 12;
+	public static final byte MF = 13;
+	public static final byte DEL = 14;
+	public static final byte LOCK = 15;
+	public static final byte UNLOCK = 16;
+	public static final byte COPY = 17;
+	public static final byte MOVE = 18;
+	public static final byte CD = 19;
+	public static final byte PRINT = 20;
+	public static final byte READ = 21;
+	public static final byte WRITE = 22;
+	public static final byte APPEND = 23;
+
+	//  
+	public static final byte RESPONSE = (byte)0x80;
+	public static final byte EVENT = (byte)0x81;
+	public static final byte DATA = (byte)0x82;
+
+	//  
+	public static final byte OK = 0;
+	public static final byte ERROR = 1;
+	public static final byte UNKNOWN_OPERATION = 2;
+	public static final byte BAD_REQUEST = 3;
+	public static final byte NOT_REGISTERED = 4;
+	public static final byte USER_EXISTS = 5;
+
+	//  -
+	public static final byte PATH_NAME = 0;
+	public static final byte PATH_ID = 1;
+
+	//  ,  ,     
+	private static final String[] names = new String[128];
+	private static final int[] arity = new int[128];
+
+	static
+	{
+		operation(MD, "md", 1);
+		operation(RD, "rd", 1);
+		operation(DELTREE, "delTree", 1);
+		operation(MF, "mf", 1);
+		operation(DEL, "del", 1);
+		operation(LOCK, "lock", 1);
+		operation(UNLOCK, "unlock", 1);
+		operation(COPY, "copy", 2);
+		operation(MOVE, "move", 2);
+		operation(CD, "cd", 1);
+		operation(PRINT, "print", 0);
+	}
+
+	private static void operation(byte code, String name, int count)
+	{
+		names[code] = name;
+		arity[code] = count;
+	}
+
+	/**
+	 *     
+	 * @return null      
+	 */
+	public static String commandName(byte operation)
+	{
+		return operation >= 0 ? names[operation] : null;
+	}
+
+	/**
+	 *     
+	 */
+	public static int pathCount(byte operation)
+	{
+		return arity[operation];
+	}
+
+	/**
+	 *    
+	 */
+	public static ByteBuffer response(int requestId, byte status, int value, String text)
+	{
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + text.length());
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0);
+			out.writeByte(RESPONSE);
+			out.writeInt(requestId);
+			out.writeByte(status);
+			out.writeInt(value);
+			writeString(out, text);
+			return frame(bytes.toByteArray());
+		} catch (IOException e) {
+			//      
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 *  
+	 */
+	public static ByteBuffer event(String text)
+	{
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 + text.length());
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0);
+			out.writeByte(EVENT);
+			writeString(out, text);
+			return frame(bytes.toByteArray());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 *   DATA:    length  
+	 */
+	public static ByteBuffer dataHeader(int requestId, long offset, int length)
+	{
+		ByteBuffer header = ByteBuffer.allocate(17);
+		header.putInt(13 + length);
+		header.put(DATA);
+		header.putInt(requestId);
+		header.putLong(offset);
+		header.flip();
+		return header;
+	}
+
+	/**
+	 *  -
+	 * @param paths - ,   INTERN
+	 */
+	public static String readPath(DataInputStream in, java.util.List<String> paths) throws IOException
+	{
+		byte kind = in.readByte();
+		if (kind == PATH_NAME)
+			return readString(in);
+		if (kind == PATH_ID)
+		{
+			int id = in.readInt();
+			if (id >= 0 && id < paths.size())
+				return paths.get(id);
+			throw new IOException(String.format("Path id %d is not interned", id));
+		}
+		throw new IOException(String.format("Unknown path kind %d", kind));
+	}
+
+	/**
+	 *  
+	 */
+	public static String readString(DataInputStream in) throws IOException
+	{
+		int length = in.readInt();
+		if (length < 0 || length > MAX_FRAME)
+			throw new IOException("Invalid string length");
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 *  
+	 */
+	public static void writeString(DataOutputStream out, String text) throws IOException
+	{
+		byte[] bytes = text.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 *    ( 4  )
+	 */
+	private static ByteBuffer frame(byte[] data)
+	{
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		buffer.putInt(0, data.length - 4);
+		return buffer;
+	}
+}
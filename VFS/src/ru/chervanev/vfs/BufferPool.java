@@ -0,0 +1,64 @@
+package ru.chervanev.vfs;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *    .
+ *
+ *           ,
+ *      .
+ *    (direct)      (. Content).
+ */
+public class BufferPool
+{
+	//  
+	private int bufferSize;
+	//     
+	private int capacity;
+	//   
+	private boolean direct;
+	private ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+	private AtomicInteger size = new AtomicInteger();
+
+	public BufferPool(int bufferSize, int capacity)
+	{
+		this(bufferSize, capacity, false);
+	}
+
+	public BufferPool(int bufferSize, int capacity, boolean direct)
+	{
+		this.bufferSize = bufferSize;
+		this.capacity = capacity;
+		this.direct = direct;
+	}
+
+	/**
+	 *     (  ,   )
+	 */
+	public ByteBuffer acquire()
+	{
+		ByteBuffer buffer = buffers.poll();
+		if (buffer == null)
+			return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+		size.decrementAndGet();
+		return buffer;
+	}
+
+	/**
+	 *    .        .
+	 */
+	public void release(ByteBuffer buffer)
+	{
+		if (buffer.capacity() != bufferSize || buffer.isDirect() != direct)
+			return;
+		if (size.incrementAndGet() > capacity)
+		{
+			size.decrementAndGet();
+			return;
+		}
+		buffer.clear();
+		buffers.add(buffer);
+	}
+}
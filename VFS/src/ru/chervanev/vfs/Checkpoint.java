@@ -0,0 +1,382 @@
+package ru.chervanev.vfs;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *   :       .
+ *
+ *  : int MAGIC, int FORMAT, long   (   ),
+ *  int  , int  , int  , long   ,
+ *  long   , int  .
+ *      ,   : int  
+ *   (-1  ), int  .      : int  
+ *  , int  , long , int    (   
+ *  Content.CHUNK ), int  , int   .
+ *      (, , ): int , UTF-8.  - big-endian.
+ *   :   Content.CHUNK ; ,  ,   .
+ *
+ *     - int,    2  (  MappedByteBuffer);
+ *         .
+ *          :   
+ *    .    MappedByteBuffer,    ;
+ *          .
+ */
+public class Checkpoint
+{
+	private static final int MAGIC = 0x56465343;
+	private static final int FORMAT = 3;
+	private static final int HEADER = 48;
+	private static final int DIR_RECORD = 8;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final DirectoryVersion[] NO_DIRS = new DirectoryVersion[0];
+	private static final FileVersion[] NO_FILES = new FileVersion[0];
+
+	private final DirectoryVersion root;
+	private final long generation;
+	//  :        
+	private final Map<String, List<String>> locks;
+
+	private Checkpoint(DirectoryVersion root, long generation, Map<String, List<String>> locks)
+	{
+		this.root = root;
+		this.generation = generation;
+		this.locks = locks;
+	}
+
+	/**
+	 *    (  , . getLocks).
+	 *        release.
+	 */
+	public DirectoryVersion getRoot()
+	{
+		return root;
+	}
+
+	/**
+	 *   ,       
+	 */
+	public long getGeneration()
+	{
+		return generation;
+	}
+
+	/**
+	 *  :     
+	 */
+	public Map<String, List<String>> getLocks()
+	{
+		return locks;
+	}
+
+	/**
+	 *      (  ,    )
+	 */
+	public void release()
+	{
+		root.release();
+	}
+
+	/**
+	 *       (   )
+	 * @param generation -     
+	 */
+	public static void write(String fileName, Snapshot image, long generation) throws IOException
+	{
+		DirectoryVersion root = image.getVersion();
+		String temp = fileName + ".tmp";
+		FileOutputStream stream = new FileOutputStream(temp);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+			out.write(new byte[HEADER]);
+			Writer writer = new Writer(out, image.getLocks());
+			writer.files = false;
+			writer.run(root);
+			writer.files = true;
+			writer.run(root);
+			int namesOffset = out.size();
+			for (String name : writer.names)
+				BinaryProtocol.writeString(out, name);
+			out.flush();
+			int blocksOffset = out.size();
+			FileChannel channel = stream.getChannel();
+			writer.blocks.writeTo(channel);
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			header.putInt(MAGIC);
+			header.putInt(FORMAT);
+			header.putLong(generation);
+			header.putInt(root.getTotalDirs() + 1);
+			header.putInt(root.getTotalFiles());
+			header.putInt(writer.names.size());
+			header.putLong(namesOffset);
+			header.putLong(blocksOffset);
+			header.putInt(writer.blocks.size());
+			header.flip();
+			while (header.hasRemaining())
+				channel.write(header, header.position());
+			channel.force(true);
+		} finally {
+			stream.close();
+		}
+		Files.move(Paths.get(temp), Paths.get(fileName), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 *         
+	 */
+	private static class Writer extends TreeWalker<DirectoryVersion>
+	{
+		private final DataOutputStream out;
+		//      
+		private final ArrayList<String> names = new ArrayList<String>();
+		private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+		//      
+		private final ArrayDeque<Integer> parents = new ArrayDeque<Integer>();
+		//       (null -    )
+		private final LockVersion rootLocks;
+		private final ArrayList<LockVersion> locks = new ArrayList<LockVersion>();
+		//   
+		private final Content.BlockTable blocks = new Content.BlockTable();
+		private int count;
+		//    ( -  )
+		private boolean files;
+		private IOException failure;
+
+		Writer(DataOutputStream out, LockVersion rootLocks)
+		{
+			this.out = out;
+			this.rootLocks = rootLocks;
+		}
+
+		void run(DirectoryVersion root) throws IOException
+		{
+			count = 0;
+			if (!walk(root))
+				throw failure;
+		}
+
+		@Override
+		protected Iterator<DirectoryVersion> children(DirectoryVersion dir)
+		{
+			return dir.getDirs().iterator();
+		}
+
+		@Override
+		protected boolean enter(DirectoryVersion dir)
+		{
+			int offset = HEADER + DIR_RECORD * count++;
+			LockVersion dirLocks = rootLocks;
+			if (!locks.isEmpty())
+			{
+				LockVersion parentLocks = locks.get(locks.size() - 1);
+				dirLocks = parentLocks != null ? parentLocks.getDir(dir.getName()) : null;
+			}
+			locks.add(dirLocks);
+			try {
+				if (!files)
+				{
+					out.writeInt(parents.isEmpty() ? -1 : parents.peek());
+					out.writeInt(id(dir.getName()));
+				}
+				else
+				{
+					for (FileVersion file : dir.getFiles())
+					{
+						LockVersion.Lockers fileLocks = dirLocks != null ? dirLocks.getLockers(file.getName()) : null;
+						List<String> lockers = fileLocks != null ? fileLocks.getUsers() : Collections.<String>emptyList();
+						out.writeInt(offset);
+						out.writeInt(id(file.getName()));
+						out.writeLong(file.getSize());
+						for (int id : blocks.add(file.getContent()))
+							out.writeInt(id);
+						out.writeInt(lockers.size());
+						for (String user : lockers)
+							out.writeInt(id(user));
+					}
+				}
+			} catch (IOException e) {
+				failure = e;
+				stop();
+			}
+			parents.push(offset);
+			return true;
+		}
+
+		@Override
+		protected void leave(DirectoryVersion dir)
+		{
+			parents.pop();
+			locks.remove(locks.size() - 1);
+		}
+
+		private int id(String name)
+		{
+			Integer id = ids.get(name);
+			if (id == null)
+			{
+				id = names.size();
+				names.add(name);
+				ids.put(name, id);
+			}
+			return id;
+		}
+	}
+
+	/**
+	 *   
+	 */
+	public static Checkpoint read(String fileName) throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			while (header.hasRemaining())
+				if (channel.read(header, header.position()) < 0)
+					break;
+			long blocksOffset = header.getLong(36);
+			int blockCount = header.getInt(44);
+			if (header.hasRemaining() || header.getInt(0) != MAGIC || header.getInt(4) != FORMAT
+					|| blocksOffset + (long)blockCount * Content.CHUNK > file.length())
+				throw new IOException(String.format("Invalid checkpoint file %s", fileName));
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, blocksOffset);
+			long generation = buffer.getLong(8);
+			int dirCount = buffer.getInt(16);
+			int fileCount = buffer.getInt(20);
+			String[] names = new String[buffer.getInt(24)];
+			buffer.position((int)buffer.getLong(28));
+			for (int i = 0; i < names.length; i++)
+			{
+				byte[] bytes = new byte[buffer.getInt()];
+				buffer.get(bytes);
+				names[i] = new String(bytes, UTF8);
+			}
+
+			// :     
+			int[] parents = new int[dirCount];
+			int[] dirNames = new int[dirCount];
+			int[] subdirs = new int[dirCount];
+			for (int i = 0; i < dirCount; i++)
+			{
+				int parent = buffer.getInt(HEADER + DIR_RECORD * i);
+				parents[i] = parent < 0 ? -1 : (parent - HEADER) / DIR_RECORD;
+				dirNames[i] = buffer.getInt(HEADER + DIR_RECORD * i + 4);
+				if (parents[i] >= 0)
+					subdirs[parents[i]]++;
+			}
+
+			//      
+			FileVersion[][] files = new FileVersion[dirCount][];
+			//  :   ,     
+			ArrayList<Content> contents = new ArrayList<Content>(fileCount);
+			Map<String, List<String>> locks = new LinkedHashMap<String, List<String>>();
+			buffer.position(HEADER + DIR_RECORD * dirCount);
+			ArrayList<FileVersion> group = new ArrayList<FileVersion>();
+			int current = -1;
+			//    ,     
+			Content.BlockTable blocks = Content.BlockTable.readFrom(channel, blocksOffset, blockCount);
+			try {
+				for (int i = 0; i < fileCount; i++)
+				{
+					int dir = (buffer.getInt() - HEADER) / DIR_RECORD;
+					String name = names[buffer.getInt()];
+					long size = buffer.getLong();
+					int[] ids = new int[(int)((size + Content.CHUNK - 1) / Content.CHUNK)];
+					for (int j = 0; j < ids.length; j++)
+						ids[j] = buffer.getInt();
+					int lockCount = buffer.getInt();
+					if (dir != current)
+					{
+						if (current >= 0)
+							files[current] = group.toArray(new FileVersion[group.size()]);
+						group.clear();
+						current = dir;
+					}
+					Content content = blocks.content(ids, size);
+					contents.add(content);
+					group.add(new FileVersion(name, content));
+					if (lockCount > 0)
+					{
+						List<String> users = new ArrayList<String>(lockCount);
+						for (int j = 0; j < lockCount; j++)
+							users.add(names[buffer.getInt()]);
+						locks.put(path(dir, parents, dirNames, names) + "\\" + name, Collections.unmodifiableList(users));
+					}
+				}
+			} finally {
+				blocks.release();
+			}
+			if (current >= 0)
+				files[current] = group.toArray(new FileVersion[group.size()]);
+
+			//   :       
+			DirectoryVersion[][] children = new DirectoryVersion[dirCount][];
+			DirectoryVersion root = null;
+			for (int i = dirCount - 1; i >= 0; i--)
+			{
+				DirectoryVersion[] dirs = children[i] != null ? children[i] : NO_DIRS;
+				children[i] = null;
+				DirectoryVersion version = new DirectoryVersion(names[dirNames[i]], dirs, files[i] != null ? files[i] : NO_FILES);
+				files[i] = null;
+				int parent = parents[i];
+				if (parent < 0)
+				{
+					root = version;
+					continue;
+				}
+				if (children[parent] == null)
+					children[parent] = new DirectoryVersion[subdirs[parent]];
+				//      
+				children[parent][--subdirs[parent]] = version;
+			}
+			if (root == null)
+			{
+				for (Content content : contents)
+					content.release();
+				throw new IOException(String.format("Invalid checkpoint file %s", fileName));
+			}
+			root.retain();
+			for (Content content : contents)
+				content.release();
+			return new Checkpoint(root, generation, locks);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 *       (     )
+	 */
+	private static String path(int dir, int[] parents, int[] dirNames, String[] names)
+	{
+		ArrayList<String> parts = new ArrayList<String>();
+		for (int i = dir; parents[i] >= 0; i = parents[i])
+			parts.add(names[dirNames[i]]);
+		StringBuilder sb = new StringBuilder();
+		for (int i = parts.size() - 1; i >= 0; i--)
+		{
+			if (sb.length() != 0)
+				sb.append("\\");
+			sb.append(parts.get(i));
+		}
+		return sb.toString();
+	}
+}
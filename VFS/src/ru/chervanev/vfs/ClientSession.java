@@ -1,40 +1,43 @@
 package ru.chervanev.vfs;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.lang.reflect.InvocationTargetException;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
 
-import ru.chervanev.vfs.ISession;
 /**
- *     .
+ *        -.
  * 
  *             
- *     ,       (ISession)
+ *     ,     .
+ *      -  (Writer).
  */
-public class ClientSession extends Thread implements ISession{
+public class ClientSession extends AbstractSession implements Runnable {
 	
 	private Socket socket;
-	private NetworkServer server;
 	// :
 	private InputStream in;	
 	private OutputStream out;
 	
-	// / :
-	private PrintWriter writer;
+	//  :
 	private BufferedReader reader;
-	// 
-	private String userName;
-	//   
-	private VFSExecuterAdapter executer;
+	//    
+	private DataInputStream frames;
+	// -    
+	private volatile Thread writerThread;
+	private volatile boolean closing;
 	
 	public ClientSession(NetworkServer server, Socket socket)
 	{
-		this.server = server;
+		super(server);
 		this.socket = socket;
 	}
 	
@@ -45,11 +48,10 @@ public class ClientSession extends Thread implements ISession{
 	{
 		try {
 			// 
-			in = socket.getInputStream();
-			out = socket.getOutputStream();
-			writer = new PrintWriter(out);
-			reader = new BufferedReader(new InputStreamReader(in));
-			executer = new VFSExecuterAdapter(this);
+			in = new BufferedInputStream(socket.getInputStream());
+			out = new BufferedOutputStream(socket.getOutputStream());
+			createExecuter();
+			server.startSession(new Writer());
 		} catch (Exception e) {
 			//       
 			System.err.print(e.getMessage());
@@ -72,6 +74,11 @@ public class ClientSession extends Thread implements ISession{
 	private void processCommands() 
 	{
 		// 
+		if (isBinary())
+		{
+			processFrames();
+			return;
+		}
 		while (socket.isConnected())
 		{
 			String command;
@@ -86,32 +93,98 @@ public class ClientSession extends Thread implements ISession{
 				return;
 			}
 			
+			//  
+			executeCommand(command);
+
+		}		
+	}
+
+	/**
+	 *     
+	 */
+	private void processFrames()
+	{
+		while (true)
+		{
+			byte[] frame;
 			try {
-				//  
-				executer.execute(command);
-			} catch (InvocationTargetException e) {
-				notifySession(e.getTargetException().getMessage());
-			} catch (Exception e) {
-				notifySession(e.getMessage());
+				frame = readFrame();
+				if (frame == null)
+					return;
+			} catch (IOException e) {
+				return;
 			}
+			if (!executeFrame(frame))
+				return;
+		}
+	}
 
-		}		
+	/**
+	 *    
+	 * @return null    
+	 */
+	private byte[] readFrame() throws IOException
+	{
+		int length;
+		try {
+			length = frames.readInt();
+		} catch (EOFException e) {
+			return null;
+		}
+		if (length < 0 || length > BinaryProtocol.MAX_FRAME)
+			throw new IOException("Invalid frame length");
+		byte[] frame = new byte[length];
+		frames.readFully(frame);
+		return frame;
 	}
 
 	/**
-	 *           
+	 *      :  BinaryProtocol.MAGIC   
+	 * @return true     
+	 */
+	private boolean negotiateBinary() throws IOException
+	{
+		in.mark(1);
+		if (in.read() != BinaryProtocol.MAGIC[0])
+		{
+			in.reset();
+			return false;
+		}
+		frames = new DataInputStream(in);
+		byte[] magic = new byte[BinaryProtocol.MAGIC.length - 1];
+		frames.readFully(magic);
+		for (int i = 0; i < magic.length; i++)
+			if (magic[i] != BinaryProtocol.MAGIC[i + 1])
+				throw new IOException("Unsupported protocol version");
+		return true;
+	}
+
+	/**
+	 *           .
+	 *       (HELLO).
 	 * @return true    
 	 */
 	private boolean registerSession() 
 	{
 		try {
-			userName = reader.readLine();
-			server.registerUser(this);
-		} catch (NetworkServer.EAlreadyUserExists e) {
-			userName = null;
-			notifySession(e.getMessage());
-			close();
-			return false;
+			if (negotiateBinary())
+			{
+				setBinary();
+				byte[] frame = readFrame();
+				if (frame == null || !executeFrame(frame) || getUserName() == null)
+				{
+					close();
+					return false;
+				}
+				return true;
+			}
+			reader = new BufferedReader(new InputStreamReader(in));
+			String name = reader.readLine();
+			if (name == null || !register(name))
+			{
+				close();
+				return false;
+			}
 		} catch (IOException e) {
 			close();
 			return false;
@@ -120,41 +193,91 @@ public class ClientSession extends Thread implements ISession{
 	}
 
 	/**
-	 *       
+	 *   .       .
 	 */
 	private void close()
 	{
-		if (socket.isConnected())
-			try {
-				socket.close();
-			} catch (IOException e) {}
+		closing = true;
+		LockSupport.unpark(writerThread);
 		server.deleteClient(this);
 	}
 
+	/**
+	 *    
+	 */
 	@Override
-	public String getUserName() 
+	protected void disconnect()
 	{
-		return userName;
+		closing = true;
+		try {
+			socket.close();
+		} catch (IOException e) {}
+		LockSupport.unpark(writerThread);
 	}
 
 	/**
-	 *   
+	 *     
 	 */
 	@Override
-	public void notifySession(String message)
+	protected void flush()
 	{
-		writer.println(message);
-		writer.flush();
-		// -    ,  :
-		executer.checkDeletion();		
+		LockSupport.unpark(writerThread);
 	}
 
 	/**
-	 *    
+	 * - :    ,   ,   .
+	 *          .
+	 *   (  )       .
 	 */
-	@Override
-	public void notifySystem(String message) 
+	private class Writer implements Runnable
 	{
-		server.notifySystem(message, this);	
+		private byte[] transfer;
+
+		public void run()
+		{
+			writerThread = Thread.currentThread();
+			try {
+				while (true)
+				{
+					ByteBuffer message = nextMessage();
+					if (message != null)
+					{
+						write(message);
+						outbound.sent(message);
+						continue;
+					}
+					out.flush();
+					if (closing)
+						break;
+					// ,    park,  : unpark  
+					LockSupport.park(this);
+				}
+			} catch (IOException e) {
+				//  ,    
+			} finally {
+				outbound.close();
+				try {
+					socket.close();
+				} catch (IOException e) {}
+			}
+		}
+
+		private void write(ByteBuffer message) throws IOException
+		{
+			if (message.hasArray())
+			{
+				out.write(message.array(), message.arrayOffset() + message.position(), message.remaining());
+				return;
+			}
+			if (transfer == null)
+				transfer = new byte[Content.CHUNK];
+			ByteBuffer source = message.duplicate();
+			while (source.hasRemaining())
+			{
+				int count = Math.min(source.remaining(), transfer.length);
+				source.get(transfer, 0, count);
+				out.write(transfer, 0, count);
+			}
+		}
 	}
 }
\ No newline at end of file
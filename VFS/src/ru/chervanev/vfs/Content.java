@@ -0,0 +1,709 @@
+package ru.chervanev.vfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ *   :      (direct ByteBuffer)  .
+ *
+ *               ,
+ *          .  ,  ,
+ *  ;       - .
+ *
+ *     ,      .
+ *      :      
+ *   ,  ,    ,   ( 
+ *         ).
+ *
+ *      .    (retain/release): 
+ *  ,     (FileVersion, SharedNode),   
+ *       ,    
+ *      (capture).      .  
+ *   ,      ,     
+ *   (Directory.isUnique),           
+ *   (slices);    .      .
+ *       ,  -   ;
+ *         blocks    .
+ *       MemoryVFS;     
+ *        (beginChange, capture).
+ */
+public class Content
+{
+	//  
+	public static final int CHUNK = 4096;
+	//    (  64 )
+	private static final BufferPool pool = new BufferPool(CHUNK, 16384, true);
+	private static final byte[] ZEROS = new byte[CHUNK];
+	private static final ByteBuffer[] NO_BUFFERS = new ByteBuffer[0];
+	private static final Chunk[] NO_CHUNKS = new Chunk[0];
+	//       (      )
+	private static final ConcurrentHashMap<Long, Chunk> blocks = new ConcurrentHashMap<Long, Chunk>();
+	//    
+	private static final AtomicLong serial = new AtomicLong();
+	//      captured      
+	// (0 -   );      deferred
+	private static volatile long captured;
+	private static final ArrayList<Content> deferred = new ArrayList<Content>();
+	//   ()    ()  
+	private static final ReentrantReadWriteLock changes = new ReentrantReadWriteLock();
+
+	public static final Content EMPTY = new Content(NO_CHUNKS, 0);
+
+	/**
+	 *  
+	 */
+	private static class Chunk
+	{
+		final ByteBuffer buffer;
+		//     (     )
+		int refs = 1;
+		//  ,     
+		int pins;
+		//     blocks   hash   
+		volatile boolean interned;
+		long hash;
+
+		Chunk(ByteBuffer buffer)
+		{
+			this.buffer = buffer;
+		}
+
+		/**
+		 *  ;        
+		 */
+		void unpin()
+		{
+			synchronized (this)
+			{
+				if (--pins != 0 || refs != 0)
+					return;
+			}
+			pool.release(buffer);
+		}
+
+		/**
+		 *      :         .
+		 *        .
+		 */
+		synchronized boolean own()
+		{
+			if (refs != 1 || pins != 0)
+				return false;
+			if (interned)
+			{
+				blocks.remove(hash, this);
+				interned = false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 *      .     release:
+	 *          ,    .
+	 */
+	public static class Slices
+	{
+		private final ByteBuffer[] buffers;
+		private final Chunk[] pinned;
+		private final AtomicBoolean released = new AtomicBoolean(false);
+
+		private Slices(ByteBuffer[] buffers, Chunk[] pinned)
+		{
+			this.buffers = buffers;
+			this.pinned = pinned;
+		}
+
+		public ByteBuffer[] getBuffers()
+		{
+			return buffers;
+		}
+
+		/**
+		 *      (    )
+		 */
+		public void release()
+		{
+			if (!released.compareAndSet(false, true))
+				return;
+			for (Chunk chunk : pinned)
+				chunk.unpin();
+		}
+	}
+
+	private final Chunk[] chunks;
+	private final long length;
+	//     
+	private final long stamp;
+	//   (   -  )
+	private final AtomicInteger holders = new AtomicInteger(1);
+	// ,             
+	private volatile Content successor;
+
+	private Content(Chunk[] chunks, long length)
+	{
+		this.chunks = chunks;
+		this.length = length;
+		this.stamp = serial.incrementAndGet();
+	}
+
+	public long length()
+	{
+		return length;
+	}
+
+	/**
+	 *    :        ,
+	 *   endChange     .    .
+	 */
+	static void beginChange()
+	{
+		changes.readLock().lock();
+	}
+
+	static void endChange()
+	{
+		changes.readLock().unlock();
+	}
+
+	/**
+	 *    :        resume.
+	 *       ,    
+	 *     (releaseCaptured).    .
+	 */
+	static void capture()
+	{
+		changes.writeLock().lock();
+		captured = serial.get();
+	}
+
+	/**
+	 *  :  
+	 */
+	static void resume()
+	{
+		changes.writeLock().unlock();
+	}
+
+	/**
+	 *   :  ,    
+	 */
+	static void releaseCaptured()
+	{
+		ArrayList<Content> released;
+		synchronized (deferred)
+		{
+			captured = 0;
+			released = new ArrayList<Content>(deferred);
+			deferred.clear();
+		}
+		for (Content content : released)
+			content.drop();
+	}
+
+	/**
+	 *    ,       :
+	 * ,     ,    
+	 * (  ,     EMPTY,  )
+	 */
+	private boolean isExclusive()
+	{
+		return chunks.length != 0 && holders.get() == 1 && stamp > captured;
+	}
+
+	/**
+	 *    offset   target
+	 * @return   , -1 -    
+	 */
+	public int read(long offset, ByteBuffer target)
+	{
+		if (offset >= length)
+			return -1;
+		int count = (int)Math.min(target.remaining(), length - offset);
+		long position = offset;
+		long end = offset + count;
+		while (position < end)
+		{
+			int from = (int)(position % CHUNK);
+			int size = (int)Math.min(CHUNK - from, end - position);
+			ByteBuffer source = chunks[(int)(position / CHUNK)].buffer.duplicate();
+			source.limit(from + size).position(from);
+			target.put(source);
+			position += size;
+		}
+		return count;
+	}
+
+	/**
+	 *       ( )   offset,
+	 *   size .      (Slices.release).
+	 *    .
+	 */
+	Slices slices(long offset, long size)
+	{
+		if (offset >= length || size <= 0)
+			return new Slices(NO_BUFFERS, NO_CHUNKS);
+		long end = offset + Math.min(size, length - offset);
+		int first = (int)(offset / CHUNK);
+		ByteBuffer[] result = new ByteBuffer[(int)((end - 1) / CHUNK) - first + 1];
+		Chunk[] pinned = new Chunk[result.length];
+		for (int i = 0; i < result.length; i++)
+		{
+			Chunk chunk = chunks[first + i];
+			synchronized (chunk)
+			{
+				chunk.pins++;
+			}
+			pinned[i] = chunk;
+			long start = (long)(first + i) * CHUNK;
+			ByteBuffer view = chunk.buffer.asReadOnlyBuffer();
+			view.limit((int)(Math.min(end, start + CHUNK) - start));
+			view.position((int)(Math.max(offset, start) - start));
+			result[i] = view;
+		}
+		return new Slices(result, pinned);
+	}
+
+	/**
+	 *     offset (     ).
+	 *   data  .
+	 * @return  
+	 */
+	Content write(long offset, ByteBuffer data)
+	{
+		return write(offset, data, true);
+	}
+
+	/**
+	 *   (. write)
+	 * @param unique -     ,   
+	 */
+	Content write(long offset, ByteBuffer data, boolean unique)
+	{
+		if (!data.hasRemaining())
+			return this;
+		boolean exclusive = unique && isExclusive();
+		long size = Math.max(offset + data.remaining(), length);
+		Chunk[] result = extend(size);
+		ByteBuffer source = data.duplicate();
+		long position = offset;
+		while (source.hasRemaining())
+		{
+			int i = (int)(position / CHUNK);
+			int from = (int)(position % CHUNK);
+			int count = Math.min(CHUNK - from, source.remaining());
+			if (!isFresh(result, i))
+				result[i] = writable(result[i], exclusive);
+			ByteBuffer target = result[i].buffer.duplicate();
+			target.clear().position(from);
+			ByteBuffer piece = source.duplicate();
+			piece.limit(piece.position() + count);
+			target.put(piece);
+			source.position(source.position() + count);
+			position += count;
+		}
+		//   ,     
+		intern(result, (int)(Math.min(offset, length) / CHUNK), (int)Math.min(size / CHUNK, (position + CHUNK - 1) / CHUNK));
+		return derive(result, size, exclusive);
+	}
+
+	/**
+	 *   (    )
+	 * @return  
+	 */
+	Content truncate(long size)
+	{
+		return truncate(size, true);
+	}
+
+	/**
+	 *   (. truncate)
+	 * @param unique -     ,   
+	 */
+	Content truncate(long size, boolean unique)
+	{
+		if (size == length)
+			return this;
+		boolean exclusive = unique && isExclusive();
+		Chunk[] result = extend(size);
+		int tail = (int)(size % CHUNK);
+		if (size < length && tail != 0)
+		{
+			//       
+			int last = result.length - 1;
+			result[last] = writable(result[last], exclusive);
+			ByteBuffer target = result[last].buffer.duplicate();
+			target.clear().position(tail);
+			target.put(ZEROS, 0, CHUNK - tail);
+		}
+		else if (size > length)
+			intern(result, (int)(length / CHUNK), (int)(size / CHUNK));
+		return derive(result, size, exclusive);
+	}
+
+	/**
+	 *     result.    ;      
+	 *   ,        
+	 * (      ).
+	 */
+	private Content derive(Chunk[] result, long size, boolean exclusive)
+	{
+		Content next = new Content(result, size);
+		if (exclusive)
+			successor = next;
+		else
+		{
+			for (int i = 0; i < result.length; i++)
+			{
+				if (isFresh(result, i))
+					continue;
+				synchronized (result[i])
+				{
+					result[i].refs++;
+				}
+			}
+		}
+		return next;
+	}
+
+	/**
+	 *  result[i]          (  )
+	 */
+	private boolean isFresh(Chunk[] result, int i)
+	{
+		return i >= chunks.length || chunks[i] != result[i];
+	}
+
+	/**
+	 *    size:   ,  - 
+	 */
+	private Chunk[] extend(long size)
+	{
+		Chunk[] result = Arrays.copyOf(chunks, (int)((size + CHUNK - 1) / CHUNK));
+		for (int i = chunks.length; i < result.length; i++)
+			result[i] = allocate(true);
+		return result;
+	}
+
+	/**
+	 * ,   :     ,   
+	 * @param exclusive -    
+	 */
+	private static Chunk writable(Chunk chunk, boolean exclusive)
+	{
+		if (exclusive && chunk.own())
+			return chunk;
+		Chunk copy = allocate(false);
+		ByteBuffer source = chunk.buffer.duplicate();
+		source.clear();
+		copy.buffer.clear();
+		copy.buffer.put(source);
+		return copy;
+	}
+
+	/**
+	 *    result[from, to),   ,  
+	 * (     ).    .
+	 */
+	private void intern(Chunk[] result, int from, int to)
+	{
+		for (int i = from; i < to; i++)
+		{
+			Chunk chunk = result[i];
+			if (chunk.interned)
+				continue;
+			long hash = hash(chunk.buffer);
+			Chunk stored;
+			synchronized (chunk)
+			{
+				chunk.hash = hash;
+				chunk.interned = true;
+				stored = blocks.putIfAbsent(hash, chunk);
+				if (stored != null)
+					chunk.interned = false;
+			}
+			if (stored == null || !share(stored, chunk, i))
+				continue;
+			result[i] = stored;
+			// ,      ,   
+			if (i >= chunks.length || chunks[i] != chunk)
+				pool.release(chunk.buffer);
+		}
+	}
+
+	/**
+	 *     stored      chunk   i
+	 * @return false         
+	 */
+	private boolean share(Chunk stored, Chunk chunk, int i)
+	{
+		synchronized (stored)
+		{
+			if (!stored.interned || stored.refs == 0 || !equal(stored.buffer, chunk.buffer))
+				return false;
+			//            (derive)
+			if (i >= chunks.length || chunks[i] != stored)
+				stored.refs++;
+			return true;
+		}
+	}
+
+	/**
+	 *   
+	 */
+	private static long hash(ByteBuffer buffer)
+	{
+		long hash = 0;
+		for (int i = 0; i < CHUNK; i += 8)
+		{
+			hash = (hash ^ buffer.getLong(i)) * 0x9E3779B97F4A7C15L;
+			hash ^= hash >>> 29;
+		}
+		return hash;
+	}
+
+	private static boolean equal(ByteBuffer a, ByteBuffer b)
+	{
+		ByteBuffer x = a.duplicate();
+		ByteBuffer y = b.duplicate();
+		x.clear();
+		y.clear();
+		return x.equals(y);
+	}
+
+	/**
+	 *    
+	 * @param zero -  
+	 */
+	private static Chunk allocate(boolean zero)
+	{
+		ByteBuffer buffer = pool.acquire();
+		if (zero)
+		{
+			buffer.clear();
+			buffer.put(ZEROS);
+		}
+		return new Chunk(buffer);
+	}
+
+	/**
+	 *    (    )
+	 */
+	void retain()
+	{
+		if (chunks.length != 0)
+			holders.incrementAndGet();
+	}
+
+	/**
+	 *   .       .
+	 *        ;      ,
+	 *     .
+	 */
+	void release()
+	{
+		if (chunks.length == 0 || holders.decrementAndGet() != 0)
+			return;
+		if (stamp <= captured)
+		{
+			synchronized (deferred)
+			{
+				if (stamp <= captured)
+				{
+					deferred.add(this);
+					return;
+				}
+			}
+		}
+		drop();
+	}
+
+	/**
+	 *    ,     ;   
+	 *    blocks ,   ,   
+	 */
+	private void drop()
+	{
+		Content next = successor;
+		for (int i = 0; i < chunks.length; i++)
+			if (!same(next, i))
+				unref(chunks[i]);
+	}
+
+	/**
+	 *    ;       blocks ,   ,
+	 *   
+	 */
+	private static void unref(Chunk chunk)
+	{
+		synchronized (chunk)
+		{
+			if (--chunk.refs != 0)
+				return;
+			if (chunk.interned)
+			{
+				blocks.remove(chunk.hash, chunk);
+				chunk.interned = false;
+			}
+			if (chunk.pins != 0)
+				return;
+		}
+		pool.release(chunk.buffer);
+	}
+
+	/**
+	 *    (  )
+	 */
+	int holders()
+	{
+		return holders.get();
+	}
+
+	/**
+	 *    i   (  )
+	 */
+	int references(int i)
+	{
+		Chunk chunk = chunks[i];
+		synchronized (chunk)
+		{
+			return chunk.refs;
+		}
+	}
+
+	/**
+	 *     (  )
+	 */
+	static int storedBlocks()
+	{
+		return blocks.size();
+	}
+
+	/**
+	 *  i      i  other
+	 */
+	private boolean same(Content other, int i)
+	{
+		return other != null && i < other.chunks.length && i < chunks.length && other.chunks[i] == chunks[i];
+	}
+
+	/**
+	 *    : ,    ,   
+	 *  ,       
+	 */
+	static class BlockTable
+	{
+		private final ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+		//   ()
+		private final IdentityHashMap<Chunk, Integer> ids = new IdentityHashMap<Chunk, Integer>();
+
+		/**
+		 *    (    )
+		 */
+		int[] add(Content content)
+		{
+			int[] result = new int[content.chunks.length];
+			for (int i = 0; i < result.length; i++)
+			{
+				Chunk chunk = content.chunks[i];
+				Integer id = ids.get(chunk);
+				if (id == null)
+				{
+					id = chunks.size();
+					chunks.add(chunk);
+					ids.put(chunk, id);
+				}
+				result[i] = id;
+			}
+			return result;
+		}
+
+		int size()
+		{
+			return chunks.size();
+		}
+
+		/**
+		 *        (   , . capture)
+		 */
+		void writeTo(FileChannel channel) throws IOException
+		{
+			for (Chunk chunk : chunks)
+			{
+				ByteBuffer source = chunk.buffer.duplicate();
+				source.clear();
+				while (source.hasRemaining())
+					channel.write(source);
+			}
+		}
+
+		/**
+		 *  count      position.
+		 *        release.
+		 */
+		static BlockTable readFrom(FileChannel channel, long position, int count) throws IOException
+		{
+			BlockTable table = new BlockTable();
+			for (int i = 0; i < count; i++)
+			{
+				Chunk chunk = allocate(false);
+				table.chunks.add(chunk);
+				ByteBuffer target = chunk.buffer.duplicate();
+				target.clear();
+				while (target.hasRemaining())
+				{
+					if (channel.read(target, position + (long)i * CHUNK + target.position()) < 0)
+						throw new IOException("Unexpected end of file content");
+				}
+			}
+			return table;
+		}
+
+		/**
+		 *   size      ids ().
+		 *      blocks.
+		 */
+		Content content(int[] ids, long size) throws IOException
+		{
+			if (size == 0)
+				return EMPTY;
+			Chunk[] result = new Chunk[ids.length];
+			for (int i = 0; i < ids.length; i++)
+			{
+				if (ids[i] < 0 || ids[i] >= chunks.size())
+					throw new IOException(String.format("Invalid block number %d", ids[i]));
+				Chunk chunk = chunks.get(ids[i]);
+				synchronized (chunk)
+				{
+					chunk.refs++;
+					if (!chunk.interned && (long)(i + 1) * CHUNK <= size)
+					{
+						chunk.hash = hash(chunk.buffer);
+						chunk.interned = blocks.putIfAbsent(chunk.hash, chunk) == null;
+					}
+				}
+				result[i] = chunk;
+			}
+			return new Content(result, size);
+		}
+
+		/**
+		 *   : ,    ,   
+		 */
+		void release()
+		{
+			for (Chunk chunk : chunks)
+				unref(chunk);
+			chunks.clear();
+		}
+	}
+}
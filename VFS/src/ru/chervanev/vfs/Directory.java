@@ -2,20 +2,39 @@ package ru.chervanev.vfs;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *  
  *  ,     
- *            
+ *   (HierarchyLock)       
+ *       (ConcurrentHashMap),   - putIfAbsent
+ *   - NameKey:      .
+ *     O(1):         
+ * (origin, . SharedNode),          ,
+ *   .          .
+ *       :       .
+ *     (DirectoryVersion),      ,
+ *   -     (LockVersion):     .
+ *        MemoryVFS.
  *   (  ).
  */
 public class Directory extends AtomEdit implements Comparable<Directory>
 {
 	private String name;
-	private Directory parent;
-	private HashMap<String, Directory> children = new HashMap<String, Directory>();
-	private HashMap<String, File> files = new HashMap<String, File>();
+	private NameKey key;
+	private volatile Directory parent;
+	private ConcurrentHashMap<NameKey, Directory> children = new ConcurrentHashMap<NameKey, Directory>();
+	private ConcurrentHashMap<NameKey, File> files = new ConcurrentHashMap<NameKey, File>();
+	//       (   ;
+	//      -  isUnique)
+	private volatile DirectoryVersion version;
+	private LockVersion locks;
+	// ,        ,    
+	// (null -   )
+	private volatile DirectoryVersion origin;
+	//     (  , . PathLabel)
+	private volatile PathLabel label;
 	
 	public String getName()
 	{
@@ -25,15 +44,82 @@ public class Directory extends AtomEdit implements Comparable<Directory>
 	public Directory(String name)
 	{
 		this.name = name;
+		this.key = new NameKey(name);
+		this.version = new DirectoryVersion(name);
+		this.locks = new LockVersion(name);
 	}
 	
 	public Directory(Directory parent, String name) throws FileSystemException
 	{
 		this.name = name;
+		this.key = new NameKey(name);
+		this.version = new DirectoryVersion(name);
+		this.locks = new LockVersion(name);
 		this.parent = parent;
 		this.parent.addChild(this);
 	}
 	
+	/**
+	 *  ,      (  )
+	 */
+	private Directory(DirectoryVersion origin)
+	{
+		origin.retain();
+		this.name = origin.getName();
+		this.key = new NameKey(name);
+		this.version = origin;
+		this.locks = new LockVersion(name);
+		this.origin = origin;
+	}
+
+	/**
+	 *  ,     :     
+	 * (     )
+	 */
+	static Directory restore(DirectoryVersion version)
+	{
+		return new Directory(version);
+	}
+
+	/**
+	 *         ( ).
+	 *      ,     .
+	 *       ,      
+	 * (     ).
+	 */
+	private void materialize()
+	{
+		if (origin == null)
+			return;
+		synchronized (this)
+		{
+			DirectoryVersion source = origin;
+			if (source == null)
+				return;
+			for (DirectoryVersion dir : source.getDirs())
+			{
+				Directory child = new Directory(dir);
+				child.parent = this;
+				children.put(child.key, child);
+			}
+			for (FileVersion version : source.getFiles())
+			{
+				File file = new File(this, version);
+				files.put(file.getKey(), file);
+			}
+			origin = null;
+			source.release();
+		}
+	}
+
+	/**
+	 *  ,      
+	 */
+	boolean isShared()
+	{
+		return origin != null;
+	}
+	
 
 	/**
 	 *   
@@ -42,11 +128,11 @@ public class Directory extends AtomEdit implements Comparable<Directory>
 	 */
 	private void addChild(Directory directory) throws FileSystemException 
 	{		
-		String key = directory.getName().toLowerCase();
-		if (!children.containsKey(key))
-			children.put(key, directory);
-		else
+		materialize();
+		if (children.putIfAbsent(directory.key, directory) != null)
 			throw new FileSystemException(String.format("Directory %s already exists", directory.getName()));
+		version = version.withDir(directory.version);
+		locks = locks.withDir(directory.locks);
 	}
 	/**
 	 *      .
@@ -56,28 +142,81 @@ public class Directory extends AtomEdit implements Comparable<Directory>
 	 * @throws FileSystemException -  -     
 	 */
 	public Directory findDir(String dirName) throws FileSystemException {
-		String[] dirs = dirName.split("\\\\");
+		return findDir(dirName, dirName.length());
+	}
+
+	/**
+	 *      dirName   end (  )
+	 */
+	private Directory findDir(String dirName, int end) throws FileSystemException {
+		//  "\"  
+		while (end > 0 && dirName.charAt(end - 1) == '\\')
+			end--;
 		Directory result = this;
-		//              
-		if (dirs.length != 1)
-		{
-			for(int i=0;i<dirs.length;i++)
-			{
-				result = result.findDir(dirs[i]);
-			}
-		}
-		else
+		//         
+		int start = 0;
+		do
 		{
-			//    -    
-			String key = dirs[0].toLowerCase();
-			result = children.get(key);
-			if (result == null)
-				throw new FileSystemException(String.format("Directory %s doesn't exist", dirs[0]));
-		}
+			int i = dirName.indexOf('\\', start);
+			if (i == -1 || i > end)
+				i = end;
+			result.materialize();
+			Directory child = result.children.get(NameKey.probe(dirName, start, i));
+			if (child == null)
+				throw new FileSystemException(String.format("Directory %s doesn't exist", dirName.substring(start, i)));
+			result = child;
+			start = i + 1;
+		} while (start < end);
 		
 		return result;
 	}
 	
+	/**
+	 *   ,   ,       ( )
+	 * @return Directory, File  null,    
+	 */
+	Object lookup(String path)
+	{
+		int end = path.length();
+		while (end > 0 && path.charAt(end - 1) == '\\')
+			end--;
+		Directory dir = this;
+		int start = 0;
+		while (true)
+		{
+			int i = path.indexOf('\\', start);
+			if (i == -1 || i > end)
+				i = end;
+			dir.materialize();
+			NameKey key = NameKey.probe(path, start, i);
+			Directory child = dir.children.get(key);
+			if (i == end)
+				return child != null ? child : dir.files.get(key);
+			if (child == null)
+				return null;
+			dir = child;
+			start = i + 1;
+		}
+	}
+	
+	/**
+	 *      (    )
+	 * @return   null
+	 */
+	Directory peekDir(String dirName)
+	{
+		return children.get(new NameKey(dirName));
+	}
+
+	/**
+	 *      (    )
+	 * @return   null
+	 */
+	File peekFile(String fileName)
+	{
+		return files.get(new NameKey(fileName));
+	}
+	
 	public String toString()
 	{
 		return getName();
@@ -85,17 +224,20 @@ public class Directory extends AtomEdit implements Comparable<Directory>
 	
 	public Collection<Directory> dirCollection()
 	{
+		materialize();
 		return children.values();
 	}
 	
 	
 	public Collection<File> fileCollection()
 	{
+		materialize();
 		return files.values();		
 	}	
 
 	public boolean hasChildren() 
 	{
+		materialize();
 		return children.size() != 0;
 	}
 
@@ -104,20 +246,73 @@ public class Directory extends AtomEdit implements Comparable<Directory>
 		return parent;
 	}
 
+	@Override
+	public boolean isRoot()
+	{
+		return parent == null && name.isEmpty();
+	}
+
 	/**
-	 *     ()
+	 *     (O(1)   )
 	 * @param dir -  
 	 * @return true   
 	 */
 	public boolean isChild(Directory dir) 
 	{
-		if (parent == dir)
-			return true;
-		else 
-			if (parent != null)
-				return parent.isChild(dir);
+		PathLabel own = label();
+		int depth = dir.getDepth();
+		return depth < own.getDepth() && own.getAncestor(depth) == dir;
+	}
+
+	/**
+	 *   ( - 0)
+	 */
+	public int getDepth()
+	{
+		return label().getDepth();
+	}
+
+	/**
+	 *       .
+	 *  :      ,     .
+	 * ,       ,      .
+	 */
+	PathLabel label()
+	{
+		PathLabel current = label;
+		if (PathLabel.isValid(current))
+			return current;
+		//     :       
+		long generation = PathLabel.generation();
+		ArrayList<Directory> chain = new ArrayList<Directory>();
+		Directory top = this;
+		current = null;
+		while (top != null)
+		{
+			PathLabel topLabel = top.label;
+			if (topLabel != null && topLabel.generation == generation)
+			{
+				current = topLabel;
+				break;
+			}
+			chain.add(top);
+			top = top.parent;
+		}
+		// top -      current ( null)
+		for (int i = chain.size() - 1; i >= 0; i--)
+		{
+			Directory dir = chain.get(i);
+			PathLabel previous = dir.label;
+			if (previous != null && previous.isChildOf(current, top))
+				current = previous.rebase(generation);
+			else if (top == null)
+				current = new PathLabel(generation, dir.getName());
 			else
-				return false;
+				current = current.child(generation, top, dir.getName());
+			dir.label = current;
+			top = dir;
+		}
+		return current;
 	}
 
 	/**
@@ -130,23 +325,15 @@ public class Directory extends AtomEdit implements Comparable<Directory>
 	}
 
 	/**
-	 *     
+	 *        (  , O()).
+	 *    ,     .
 	 * @throws FileSystemException -   
 	 */
 	private void checkLocking() throws FileSystemException 
 	{
-		for(File file : files.values())
-		{
-			if (file.isLocked())
-			{
-				throw new FileSystemException(String.format("File %s is locked", file.getName()));
-			}
-		}
-		//  :
-		for(Directory directory : children.values())
-		{
-			directory.checkLocking();
-		}		
+		String locked = locks.findLocked();
+		if (locked != null)
+			throw new FileSystemException(String.format("File %s is locked", locked));
 	}
 
 	/**
@@ -154,11 +341,17 @@ public class Directory extends AtomEdit implements Comparable<Directory>
 	 * @param directory -     
 	 */
 	private void delChild(Directory directory) {
-		children.remove(directory.getName().toLowerCase());		
+		if (children.remove(directory.key, directory))
+		{
+			version = version.withoutDir(directory.getName());
+			locks = locks.withoutDir(directory.getName());
+		}
 	}
 
 	/**
 	 *    .    .
+	 *    ;      
+	 *      ,    - delChildren.
 	 */
 	public void delete() throws FileSystemException 
 	{
@@ -168,25 +361,50 @@ public class Directory extends AtomEdit implements Comparable<Directory>
 	}
 	
 	/**
-	 *   .      
+	 *         (    ).
+	 * ,   ,      .
 	 */
-	public void delTree() throws FileSystemException
+	void releaseOrigin()
 	{
-		delete();
-		delChildren();		
+		DirectoryVersion source;
+		synchronized (this)
+		{
+			source = origin;
+			origin = null;
+		}
+		if (source != null)
+			source.release();
 	}
 	
 	/**
-	 *    
+	 *    ,     (delete):
+	 *   ,   ,   - .
+	 *         .
 	 */
-	private void delChildren() 
+	void delChildren() 
 	{
-		for(Directory subDir : children.values())
-		{
-			subDir.delChildren();			
-		}
-		children.clear();
-		parent = null;
+		SubtreeWalk.run(this, null, new SubtreeWalk.Visitor() {
+			@Override
+			protected boolean enter(Directory dir, String path)
+			{
+				//      :    
+				dir.releaseOrigin();
+				return true;
+			}
+
+			@Override
+			protected Collection<Directory> children(Directory dir)
+			{
+				return dir.children.values();
+			}
+
+			@Override
+			protected void leave(Directory dir)
+			{
+				dir.children.clear();
+				dir.parent = null;
+			}
+		});
 	}
 
 	/**
@@ -196,11 +414,10 @@ public class Directory extends AtomEdit implements Comparable<Directory>
 	 */
 	public void addFile(File file) throws FileSystemException 
 	{
-		String key = file.getName().toLowerCase();
-		if (!files.containsKey(key))
-			files.put(key, file);
-		else
+		materialize();
+		if (files.putIfAbsent(file.getKey(), file) != null)
 			throw new FileSystemException(String.format("File %s already exists", file.getName()));
+		version = version.withFile(file.getVersion());
 	}
 	/**
 	 *    
@@ -210,24 +427,19 @@ public class Directory extends AtomEdit implements Comparable<Directory>
 	 */
 	public File findFile(String fileName) throws FileSystemException 
 	{
-		File result;
-		int i = fileName.indexOf('\\');
-		if (i == -1)
-		{
-			//     
-			result = files.get(fileName.toLowerCase());
-			if (result == null)
-				throw new FileSystemException(String.format("File %s not found in directory", fileName));
-		}
-		else
+		Directory dir = this;
+		int i = fileName.lastIndexOf('\\');
+		if (i != -1)
 		{
 			//     
 			//     "\"
-			String parentDir = fileName.substring(0, i);
-			// "\"    
-			fileName = fileName.substring(i+1);
-			result = findDir(parentDir).findFile(fileName);			
+			dir = findDir(fileName, i);
 		}
+		//    ,  "\"   
+		dir.materialize();
+		File result = dir.files.get(NameKey.probe(fileName, i + 1, fileName.length()));
+		if (result == null)
+			throw new FileSystemException(String.format("File %s not found in directory", fileName.substring(i + 1)));
 		return result;
 	}
 
@@ -238,32 +450,41 @@ public class Directory extends AtomEdit implements Comparable<Directory>
 	 */
 	public void delFile(File file) 
 	{
-		files.remove(file.getName().toLowerCase());		
+		if (files.remove(file.getKey(), file))
+		{
+			version = version.withoutFile(file.getName());
+			locks = locks.withoutFile(file.getName());
+		}
+	}
+
+	/**
+	 *   (O(1), .  ),      (attach).
+	 *      :      ,
+	 *    .
+	 * @return  
+	 */
+	public Directory copy()
+	{
+		//      ;      
+		return new Directory(version);
 	}
 
 	/**
-	 *      
+	 *      (  ).
+	 *    ,      (releaseOrigin).
 	 * @param destDir -  
+	 * @throws FileSystemException -    
 	 */
-	public void copy(Directory destDir) throws FileSystemException 
+	public void attach(Directory destDir) throws FileSystemException
 	{
-		//  
-		Directory copy = new Directory(getName());
-		//  
-		for(Directory sub : children.values())
-		{
-			sub.copy(copy);
-		}
-		
-		//  
-		for(File file: files.values())
-		{
-			new File(copy, file.getName());
+		parent = destDir;
+		try {
+			//    ,        
+			destDir.addChild(this);
+		} catch (FileSystemException e) {
+			parent = null;
+			throw e;
 		}
-		copy.parent = destDir;
-		//      ,          
-		//       ,      
-		destDir.addChild(copy);
 	}
 
 	/**
@@ -278,18 +499,16 @@ public class Directory extends AtomEdit implements Comparable<Directory>
 		destDir.addChild(this);
 		parent.delChild(this);
 		parent = destDir;
-		
+		//   
+		PathLabel.invalidate();
 	}
 	/**
-	 *    ,    ( )
+	 *   ,    (   )
 	 * @return -   
 	 */
 	public String getFullName() 
 	{
-		if (parent==null || parent.getName().isEmpty())
-			return getName();
-		else
-			return parent.getFullName() + "\\" + getName();
+		return label().fullName;
 	}
 
 	public boolean isDeleted() 
@@ -297,68 +516,64 @@ public class Directory extends AtomEdit implements Comparable<Directory>
 		return parent == null;
 	}
 
+	public DirectoryVersion getVersion()
+	{
+		return version;
+	}
+
+	public LockVersion getLocks()
+	{
+		return locks;
+	}
+
 	/**
-	 *        ,      
-	 *       -     
-	 * @throws FileSystemException -   
+	 *       
 	 */
-	public void beginUpdateResursive() throws FileSystemException
+	void refresh(Directory child)
 	{
-		beginUpdate();
-		ArrayList<AtomEdit> edited = new ArrayList<AtomEdit>();
-		//     
-		try
-		{
-			//  
-			for(Directory d : children.values())
-			{
-				d.beginUpdateResursive();
-				//       
-				edited.add(d);
-			}
+		version = version.withDir(child.version);
+		locks = locks.withDir(child.locks);
+	}
 
-			//  ,   :
-			for(File f : files.values())
-			{
-				//       
-				f.beginUpdate();
-				edited.add(f);
-			}
+	/**
+	 *      
+	 */
+	void refresh(File file)
+	{
+		version = version.withFile(file.getVersion());
+	}
 
-		}catch(FileSystemException e)
+	/**
+	 *       :  ,     
+	 *          (    ;
+	 *  -    ).       
+	 * :      ,   ,
+	 *     .
+	 */
+	boolean isUnique(FileVersion file)
+	{
+		DirectoryVersion current = version;
+		if (file.refs() != 1 || !VersionTree.isUnique(current.files, file))
+			return false;
+		for (Directory dir = this; current.refs() == 1; )
 		{
-			// beginUpdate  , :
-			endUpdate();
-			// -      , 
-			//  ,   :
-			for(AtomEdit ed : edited)
-			{
-				if (ed.getClass().equals(this.getClass()))
-					((Directory)ed).endUpdateResursive();
-				else
-					ed.endUpdate();
-			}
-			throw e;
+			Directory up = dir.parent;
+			if (up == null)
+				return true;
+			DirectoryVersion upper = up.version;
+			if (!VersionTree.isUnique(upper.dirs, current))
+				return false;
+			dir = up;
+			current = upper;
 		}
-		edited.clear();
+		return false;
 	}
-	
+
 	/**
-	 *     
+	 *        
 	 */
-	public void endUpdateResursive()
+	void refreshLocks(File file, Collection<String> users)
 	{
-		// this :
-		endUpdate();
-		//   :
-		for(File f : files.values())
-		{
-			f.endUpdate();
-		}		
-		// :
-		for(Directory d : children.values())			
-		{
-			d.endUpdateResursive();
-		}
+		locks = locks.withFile(file.getName(), users);
 	}
 }
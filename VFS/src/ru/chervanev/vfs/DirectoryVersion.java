@@ -0,0 +1,170 @@
+package ru.chervanev.vfs;
+
+import java.util.ArrayList;
+
+/**
+ *   : ,     ,
+ *   -    .
+ *       (LockVersion):    .
+ *       (VersionTree),    
+ *        :    
+ *    (MemoryVFS.endPublish)  O(log n)  ,   - O(1).
+ *      (SharedNode).
+ */
+public class DirectoryVersion extends NodeVersion
+{
+	final VersionTree<DirectoryVersion> dirs;
+	final VersionTree<FileVersion> files;
+	//   (  )
+	private final int totalDirs;
+	private final int totalFiles;
+
+	public DirectoryVersion(String name)
+	{
+		this(name, null, null, 0, 0);
+	}
+
+	/**
+	 *      (   ;   )
+	 */
+	DirectoryVersion(String name, DirectoryVersion[] dirs, FileVersion[] files)
+	{
+		super(name);
+		this.dirs = VersionTree.of(dirs);
+		this.files = VersionTree.of(files);
+		int dirCount = dirs.length;
+		int fileCount = files.length;
+		for (DirectoryVersion dir : dirs)
+		{
+			dirCount += dir.totalDirs;
+			fileCount += dir.totalFiles;
+		}
+		this.totalDirs = dirCount;
+		this.totalFiles = fileCount;
+	}
+
+	private DirectoryVersion(String name, VersionTree<DirectoryVersion> dirs, VersionTree<FileVersion> files,
+			int totalDirs, int totalFiles)
+	{
+		super(name);
+		this.dirs = dirs;
+		this.files = files;
+		this.totalDirs = totalDirs;
+		this.totalFiles = totalFiles;
+	}
+
+	@Override
+	protected void parts(ArrayList<SharedNode> parts)
+	{
+		if (dirs != null)
+			parts.add(dirs);
+		if (files != null)
+			parts.add(files);
+	}
+
+	public int getDirCount()
+	{
+		return VersionTree.size(dirs);
+	}
+
+	/**
+	 *      i    (O(log n))
+	 */
+	public DirectoryVersion getDir(int i)
+	{
+		return VersionTree.get(dirs, i);
+	}
+
+	/**
+	 *      
+	 */
+	public Iterable<DirectoryVersion> getDirs()
+	{
+		return VersionTree.items(dirs);
+	}
+
+	public int getFileCount()
+	{
+		return VersionTree.size(files);
+	}
+
+	/**
+	 *     i    (O(log n))
+	 */
+	public FileVersion getFile(int i)
+	{
+		return VersionTree.get(files, i);
+	}
+
+	/**
+	 *     
+	 */
+	public Iterable<FileVersion> getFiles()
+	{
+		return VersionTree.items(files);
+	}
+
+	/**
+	 *    
+	 */
+	public int getTotalDirs()
+	{
+		return totalDirs;
+	}
+
+	/**
+	 *    
+	 */
+	public int getTotalFiles()
+	{
+		return totalFiles;
+	}
+
+	/**
+	 *       
+	 */
+	DirectoryVersion withDir(DirectoryVersion dir)
+	{
+		DirectoryVersion old = VersionTree.get(dirs, dir.getName());
+		if (old == dir)
+			return this;
+		int dirCount = totalDirs + dir.totalDirs;
+		int fileCount = totalFiles + dir.totalFiles;
+		if (old == null)
+			dirCount++;
+		else
+		{
+			dirCount -= old.totalDirs;
+			fileCount -= old.totalFiles;
+		}
+		return new DirectoryVersion(getName(), VersionTree.put(dirs, dir), files, dirCount, fileCount);
+	}
+
+	DirectoryVersion withoutDir(String name)
+	{
+		DirectoryVersion old = VersionTree.get(dirs, name);
+		if (old == null)
+			return this;
+		return new DirectoryVersion(getName(), VersionTree.remove(dirs, name), files,
+				totalDirs - old.totalDirs - 1, totalFiles - old.totalFiles);
+	}
+
+	/**
+	 *      
+	 */
+	DirectoryVersion withFile(FileVersion file)
+	{
+		FileVersion old = VersionTree.get(files, file.getName());
+		if (old == file)
+			return this;
+		return new DirectoryVersion(getName(), dirs, VersionTree.put(files, file),
+				totalDirs, old == null ? totalFiles + 1 : totalFiles);
+	}
+
+	DirectoryVersion withoutFile(String name)
+	{
+		if (VersionTree.get(files, name) == null)
+			return this;
+		return new DirectoryVersion(getName(), dirs, VersionTree.remove(files, name), totalDirs, totalFiles - 1);
+	}
+}
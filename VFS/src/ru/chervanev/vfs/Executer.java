@@ -1,89 +1,284 @@
 package ru.chervanev.vfs;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *            
  *	
- *   .
+ *          -,
+ *      MethodHandle.
  */
 public abstract class Executer 
 {
+	//  ,      
+	private static ConcurrentHashMap<Class<?>, CommandTable> tables = new ConcurrentHashMap<Class<?>, CommandTable>();
+
 	protected Object object;
+	//    object
+	private CommandTable table;
+
 	/**
 	 *  
 	 */
 	public void execute(String command) throws Exception
 	{
 		//  
-		parse(command);
+		int count = parse(command);
+		int arity = count - 1;
 		//   ()
-		Method targetMethod = null;
-		for (Method method : object.getClass().getMethods())
+		Command target = getTable().find(command, bounds[0], bounds[1], arity);
+		//  
+		if (target == null)
+			throw new Exception(String.format("Method called \"%s\" with parameters count %d has not been found", command.substring(bounds[0], bounds[1]), arity));
+		//       
+		String[] args = argumentsFor(arity);
+		for (int i=0;i<arity;i++)
+			args[i] = command.substring(bounds[2*i+2], bounds[2*i+3]);
+		// .      
+		try {
+			target.invoke(object, args);
+		} finally {
+			//         
+			for (int i=0;i<arity;i++)
+				args[i] = null;
+		}
+	}
+
+	/**
+	 *  ,      
+	 */
+	public void execute(String name, String[] args) throws Exception
+	{
+		Command target = getTable().find(name, args.length);
+		if (target == null)
+			throw new Exception(String.format("Method called \"%s\" with parameters count %d has not been found", name, args.length));
+		target.invoke(object, args);
+	}
+
+	/**
+	 *     object (   )
+	 */
+	private CommandTable getTable()
+	{
+		if (table == null)
 		{
-			//    
-			if (method.getName().compareToIgnoreCase(methodName) == 0 && method.getParameterTypes().length == parameters.size())
+			Class<?> type = object.getClass();
+			table = tables.get(type);
+			if (table == null)
 			{
-				//     
-				//   ,   
-				for(int i=0;i<parameters.size();i++)
-				{
-					if (!method.getParameterTypes()[i].equals(String.class))
-						break;
-				}
-				targetMethod = method;
-				break;
+				CommandTable created = new CommandTable(type);
+				table = tables.putIfAbsent(type, created);
+				if (table == null)
+					table = created;
 			}			
 		}
-		//  
-		if (targetMethod == null)
-			throw new Exception(String.format("Method called \"%s\" with parameters count %d has not been found", methodName, parameters.size()));
-		// .      
-		targetMethod.invoke(object, parameters.toArray());
+		return table;
 	}
 	
-	//  - ,      
-	private Pattern pattern = Pattern.compile("\\S+"); // ((\\\"[^\"]+\\\")|\\S+)
-	private String methodName;
-	private ArrayList<String> parameters = new ArrayList<String>();
+	//   :  [, )   ,   
+	private int[] bounds = new int[16];
+	//     ,   
+	private String[][] arguments = new String[4][];
 	
-	//         
-	private void parse(String command) throws Exception
+	/**
+	 *          ,   .
+	 *  -  .       ,
+	 *         .
+	 * @return   ,   
+	 */
+	private int parse(String command) throws Exception
 	{
-		//   
-		Matcher matcher = pattern.matcher(command);
-		parameters.clear();
-		methodName = null;
+		int count = 0;
+		int length = command.length();
+		int i = 0;
+		while (true)
+		{
+			//  
+			while (i < length && Character.isWhitespace(command.charAt(i)))
+				i++;
+			if (i == length)
+				break;
+
+			int start, end;
+			if (command.charAt(i) == '"')
+			{
+				//   
+				int close = command.indexOf('"', i + 1);
+				if (close == -1)
+					throw new Exception("Closing quote is missing");
+				start = i + 1;
+				end = close;
+				while (start < end && Character.isWhitespace(command.charAt(start)))
+					start++;
+				while (end > start && Character.isWhitespace(command.charAt(end - 1)))
+					end--;
+				i = close + 1;
+			}
+			else
+			{
+				start = i;
+				while (i < length && !Character.isWhitespace(command.charAt(i)))
+					i++;
+				end = i;
+			}
+
+			if (2*count + 2 > bounds.length)
+			{
+				int[] grown = new int[bounds.length * 2];
+				System.arraycopy(bounds, 0, grown, 0, bounds.length);
+				bounds = grown;
+			}
+			bounds[2*count] = start;
+			bounds[2*count + 1] = end;
+			count++;
+		}
 		
 		//  -  
-		if(matcher.find())
-			methodName = format(matcher.group());
-		
-		if (methodName == null)
+		if (count == 0 || bounds[0] == bounds[1])
 			throw new Exception("Method name is empty");
+		return count;
+	}
 
-		//   - 
-		while (matcher.find())
-		    parameters.add(format(matcher.group()));
+	/**
+	 *    ,          
+	 */
+	private String[] argumentsFor(int arity)
+	{
+		if (arity >= arguments.length)
+		{
+			String[][] grown = new String[arity + 1][];
+			System.arraycopy(arguments, 0, grown, 0, arguments.length);
+			arguments = grown;
+		}
+		if (arguments[arity] == null)
+			arguments[arity] = new String[arity];
+		return arguments[arity];
 	}
 
 	/**
-	 *      
+	 *  -     .
+	 * MethodHandle    (Object, String[])       Object[]
 	 */
-	private String format(String text)
+	private static class Command
 	{
-		String result = text.trim();
-	
-		/*  
-		if (result.startsWith("\"") && result.endsWith("\""))
+		private String name;
+		private int arity;
+		private MethodHandle handle;
+		//     
+		private Command next;
+
+		public Command(String name, int arity, MethodHandle handle, Command next)
+		{
+			this.name = name;
+			this.arity = arity;
+			this.handle = handle;
+			this.next = next;
+		}
+
+		public void invoke(Object target, String[] args) throws Exception
+		{
+			try {
+				handle.invokeExact(target, args);
+			} catch (Exception e) {
+				throw e;
+			} catch (Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new Exception(e);
+			}
+		}
+	}
+
+	/**
+	 *   :  -        .
+	 *    ,     .
+	 */
+	private static class CommandTable
+	{
+		private Command[] buckets;
+
+		public CommandTable(Class<?> type)
+		{
+			Method[] methods = type.getMethods();
+			int size = 16;
+			while (size < methods.length * 2)
+				size <<= 1;
+			buckets = new Command[size];
+
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			for (Method method : methods)
+			{
+				//  Object   
+				if (method.getDeclaringClass() == Object.class || Modifier.isStatic(method.getModifiers()))
+					continue;
+				//     
+				//   ,   
+				Class<?>[] types = method.getParameterTypes();
+				boolean accepted = true;
+				for (Class<?> parameterType : types)
+				{
+					if (!parameterType.equals(String.class))
+					{
+						accepted = false;
+						break;
+					}
+				}
+				//          
+				if (!accepted || find(method.getName(), types.length) != null)
+					continue;
+
+				MethodHandle handle;
+				try {
+					handle = lookup.unreflect(method)
+							.asSpreader(String[].class, types.length)
+							.asType(MethodType.methodType(void.class, Object.class, String[].class));
+				} catch (IllegalAccessException e) {
+					// ,    
+					continue;
+				}
+				int index = indexOf(method.getName());
+				buckets[index] = new Command(method.getName(), types.length, handle, buckets[index]);
+			}
+		}
+
+		/**
+		 *     ()   
+		 */
+		public Command find(String name, int arity)
+		{
+			return find(name, 0, name.length(), arity);
+		}
+
+		/**
+		 *    ,    [from, to)
+		 */
+		public Command find(String text, int from, int to, int arity)
+		{
+			for (Command command = buckets[indexOf(text, from, to)]; command != null; command = command.next)
+			{
+				if (command.arity == arity && command.name.length() == to - from && command.name.regionMatches(true, 0, text, from, to - from))
+					return command;
+			}
+			return null;
+		}
+
+		private int indexOf(String name)
+		{
+			return indexOf(name, 0, name.length());
+		}
+
+		private int indexOf(String text, int from, int to)
 		{
-			result = result.substring(1, result.length()-1);
-			result = result.trim();
+			int hash = 0;
+			for (int i=from;i<to;i++)
+				hash = 31*hash + Character.toLowerCase(Character.toUpperCase(text.charAt(i)));
+			hash ^= (hash >>> 16);
+			return hash & (buckets.length - 1);
 		}
-		*/
-		return result;
 	}
-}
\ No newline at end of file
+}
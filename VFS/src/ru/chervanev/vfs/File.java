@@ -1,6 +1,8 @@
 package ru.chervanev.vfs;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 
 /**
  *    
@@ -9,23 +11,83 @@ public class File extends AtomEdit implements Comparable<File>
 {
 	// 
 	private String name;
+	private NameKey key;
 	//  
-	private Directory parent;
-	//  
-	private ArrayList<String> userLockList = new ArrayList<String>();
+	private volatile Directory parent;
+	//         (null -  ;
+	// null   -   )
+	private LinkedHashMap<String, Lease> lockers;
+	//     (   )
+	private FileVersion version;
+	//   (  , . PathLabel)
+	private volatile PathLabel label;
 	
 	public File(Directory parent, String name) throws FileSystemException
 	{
 		this.name = name;
+		this.key = new NameKey(name);
+		this.version = new FileVersion(name);
 		this.parent = parent;
 		this.parent.addFile(this);
 	}
 	
+	/**
+	 *   ,      (  ).
+	 *       ;    (FileVersion).
+	 */
+	File(Directory parent, FileVersion version)
+	{
+		this.name = version.getName();
+		this.key = new NameKey(name);
+		this.version = version;
+		this.parent = parent;
+	}
+	
 	public String getName()
 	{
 		return name;
 	}
 
+	public Directory getParent()
+	{
+		return parent;
+	}
+
+	/**
+	 *      
+	 */
+	NameKey getKey()
+	{
+		return key;
+	}
+
+	/**
+	 *   ,    (,     )
+	 */
+	public String getFullName()
+	{
+		PathLabel parentLabel = parent.label();
+		PathLabel current = label;
+		if (current != null && current.isFileOf(parentLabel))
+			return current.fullName;
+		current = parentLabel.file(getName());
+		label = current;
+		return current.fullName;
+	}
+
+	public FileVersion getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 *   (   )
+	 */
+	public Content getContent()
+	{
+		return version.getContent();
+	}
+
 	@Override
 	public int compareTo(File o) {
 		return this.getName().compareTo(o.getName());
@@ -33,16 +95,42 @@ public class File extends AtomEdit implements Comparable<File>
 
 	public boolean isLocked()
 	{
-		return userLockList.size()!=0;
+		return lockers != null;
 	}
 	
 	/**
-	 * 
+	 *  (  ).      .
 	 */
 	public void delete() throws FileSystemException 
 	{
 		checkLocking();
 		parent.delFile(this);		
+		parent = null;
+	}
+	
+	/**
+	 *    
+	 */
+	public boolean isLockedBy(String user)
+	{
+		return lockers != null && lockers.containsKey(user);
+	}
+
+	/**
+	 *    (null -     )
+	 */
+	public Lease getLease(String user)
+	{
+		return lockers != null ? lockers.get(user) : null;
+	}
+
+	/**
+	 *    .     .
+	 */
+	void setLease(String user, Lease lease)
+	{
+		if (isLockedBy(user))
+			lockers.put(user, lease);
 	}
 	
 	/**
@@ -53,73 +141,107 @@ public class File extends AtomEdit implements Comparable<File>
 		if (isLocked())
 			throw new FileSystemException(String.format("File %s is locked", getName()));	}
 
+	/**
+	 *    :     
+	 */
+	private void checkWriting(String user) throws FileSystemException
+	{
+		if (lockers == null)
+			return;
+		for (String locker : lockers.keySet())
+			if (!locker.equals(user))
+				throw new FileSystemException(String.format("File %s is locked by %s", getName(), locker));
+	}
+
+	/**
+	 *        offset.
+	 *   :   setContent.
+	 *     .
+	 * @throws FileSystemException -     
+	 */
+	public Content write(String user, long offset, ByteBuffer data) throws FileSystemException
+	{
+		checkWriting(user);
+		return version.getContent().write(offset, data, parent.isUnique(version));
+	}
+
+	/**
+	 *       (. write)
+	 * @throws FileSystemException -     
+	 */
+	public Content truncate(String user, long length) throws FileSystemException
+	{
+		checkWriting(user);
+		return version.getContent().truncate(length, parent.isUnique(version));
+	}
+
+	/**
+	 *    data,    (. write)
+	 * @throws FileSystemException -     
+	 */
+	public Content replace(String user, ByteBuffer data) throws FileSystemException
+	{
+		checkWriting(user);
+		return Content.EMPTY.write(0, data);
+	}
+
+	/**
+	 *   (      ).
+	 *    ;      ,
+	 *       .
+	 */
+	void setContent(Content content)
+	{
+		if (content == version.getContent())
+			return;
+		version = version.withContent(content);
+		parent.refresh(this);
+	}
+
 	/**
 	 *    
+	 *      (HierarchyLock),   
 	 * @throws FileSystemException -        
 	 */
-	public synchronized void lock(String user) throws FileSystemException
+	public void lock(String user) throws FileSystemException
 	{
-		beginUpdate();
-		try
-		{
-			if (!userLockList.contains(user))			
-				userLockList.add(user);
-			else
-				throw new FileSystemException(String.format("File %s already locked by %s", getName(), user));
-		}
-		finally
-		{
-			endUpdate();
-		}
+		if (lockers == null)
+			lockers = new LinkedHashMap<String, Lease>();
+		if (lockers.containsKey(user))
+			throw new FileSystemException(String.format("File %s already locked by %s", getName(), user));
+		lockers.put(user, null);
+		parent.refreshLocks(this, lockers.keySet());
 	}
 
 	/**
 	 *    
+	 *     
 	 * @throws FileSystemException -   
 	 */
 	
 	public void unlock(String user) throws FileSystemException
 	{
-		beginUpdate();
-		try
-		{
-			if (!userLockList.remove(user))
-				throw new FileSystemException(String.format("File %s is not locked by %s", getName(), user));
-		}
-		finally
-		{
-			endUpdate();
-		}
-	}
-
-	/**
-	 *        
-	 * @return
-	 */
-	public String lockInfo()
-	{
-		if (userLockList.size()==0)
-			return "";
-		
-		StringBuilder sb = new StringBuilder();
-		sb.append("[LOCKED by ");
-		for(int i=0;i<userLockList.size();i++)
-		{
-			if (i!=0)
-				sb.append(", ");
-			sb.append(userLockList.get(i));
-		}
-		sb.append("]");
-		return sb.toString();
+		if (lockers == null || !lockers.containsKey(user))
+			throw new FileSystemException(String.format("File %s is not locked by %s", getName(), user));
+		Lease lease = lockers.remove(user);
+		if (lease != null)
+			lease.deactivate();
+		if (lockers.isEmpty())
+			lockers = null;
+		parent.refreshLocks(this, lockers != null ? lockers.keySet() : Collections.<String>emptySet());
 	}
 
 	/**
 	 *   
+	 * @return  
 	 * @throws FileSystemException -   
 	 */
-	public void copy(Directory destDir) throws FileSystemException 
+	public File copy(Directory destDir) throws FileSystemException 
 	{
-		new File(destDir, getName());		
+		File copy = new File(destDir, getName());
+		//   :     
+		copy.setContent(version.getContent());
+		return copy;
 	}
 
 	public void move(Directory destDir) throws FileSystemException 
@@ -0,0 +1,58 @@
+package ru.chervanev.vfs;
+
+/**
+ *   :   .
+ *     (LockVersion):   .
+ * ,    , -   (SharedNode).
+ */
+public class FileVersion extends NodeVersion
+{
+	private final Content content;
+
+	public FileVersion(String name)
+	{
+		this(name, Content.EMPTY);
+	}
+
+	/**
+	 *     ()
+	 */
+	FileVersion(String name, Content content)
+	{
+		super(name);
+		this.content = content;
+	}
+
+	/**
+	 *    
+	 */
+	FileVersion withContent(Content content)
+	{
+		return new FileVersion(getName(), content);
+	}
+
+	@Override
+	protected void acquired()
+	{
+		content.retain();
+	}
+
+	@Override
+	protected void released()
+	{
+		content.release();
+	}
+
+	public Content getContent()
+	{
+		return content;
+	}
+
+	/**
+	 *  , 
+	 */
+	public long getSize()
+	{
+		return content.length();
+	}
+}
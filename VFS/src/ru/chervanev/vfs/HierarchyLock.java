@@ -0,0 +1,230 @@
+package ru.chervanev.vfs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ *        (multiple granularity locking).
+ *
+ *   S  X      ,  
+ *    O():     IS  IX.
+ *           
+ *  ( ,    ),     .
+ *         timeout.
+ *
+ *     (, )     
+ *    ,        IX (update).
+ *
+ *        .    ,
+ *      (     );   ,
+ *         :
+ *
+ *  	do { lock.clear(); ... , lock.exclusive(...) } while (!lock.acquire());
+ *  	try { ... } finally { lock.release(); }
+ */
+public class HierarchyLock
+{
+	/**
+	 *  
+	 */
+	public enum Mode
+	{
+		IS, IX, S, X;
+
+		//  
+		private static final boolean[][] compatible = {
+			//         IS     IX     S      X
+			/* IS */ { true,  true,  true,  false },
+			/* IX */ { true,  true,  false, false },
+			/* S  */ { true,  false, true,  false },
+			/* X  */ { false, false, false, false },
+		};
+
+		public boolean isCompatible(Mode other)
+		{
+			return compatible[ordinal()][other.ordinal()];
+		}
+
+		/**
+		 * ,    (S + IX   X)
+		 */
+		public Mode combine(Mode other)
+		{
+			if (this == other)
+				return this;
+			if (this == X || other == X)
+				return X;
+			if (this == IS)
+				return other;
+			if (other == IS)
+				return this;
+			return X;
+		}
+	}
+
+	/**
+	 *   
+	 */
+	private static class Request
+	{
+		AtomEdit node;
+		//     
+		Directory parent;
+		int depth;
+		Mode mode;
+		//  
+		boolean granted;
+	}
+
+	private static final Comparator<Request> order = new Comparator<Request>() {
+		public int compare(Request a, Request b)
+		{
+			if (a.depth != b.depth)
+				return a.depth < b.depth ? -1 : 1;
+			long x = a.node.getSerial();
+			long y = b.node.getSerial();
+			return x < y ? -1 : (x == y ? 0 : 1);
+		}
+	};
+
+	//    , 
+	private static volatile long timeout = 5000;
+
+	private HashMap<AtomEdit, Request> requests = new HashMap<AtomEdit, Request>();
+	private ArrayList<Request> ordered = new ArrayList<Request>();
+	private long deadline;
+
+	public HierarchyLock()
+	{
+		this(timeout);
+	}
+
+	/**
+	 * @param milliseconds -    (0 -  :     )
+	 */
+	public HierarchyLock(long milliseconds)
+	{
+		deadline = System.nanoTime() + milliseconds * 1000000L;
+	}
+
+	public static void setTimeout(long milliseconds)
+	{
+		timeout = milliseconds;
+	}
+
+	/**
+	 *       
+	 */
+	public void exclusive(AtomEdit node)
+	{
+		request(node, Mode.X, Mode.IX);
+	}
+
+	/**
+	 *       (IX):  
+	 *  , ,      
+	 */
+	public void update(Directory directory)
+	{
+		request(directory, Mode.IX, Mode.IX);
+	}
+
+	/**
+	 *       
+	 */
+	public void shared(AtomEdit node)
+	{
+		request(node, Mode.S, Mode.IS);
+	}
+
+	/**
+	 *        
+	 */
+	private void request(AtomEdit node, Mode mode, Mode intention)
+	{
+		int depth = 0;
+		for (Directory parent = node.getParent(); parent != null; parent = parent.getParent())
+			depth++;
+		AtomEdit current = node;
+		while (current != null)
+		{
+			Request request = requests.get(current);
+			if (request == null)
+			{
+				request = new Request();
+				request.node = current;
+				request.parent = current.getParent();
+				request.depth = depth;
+				request.mode = mode;
+				requests.put(current, request);
+			}
+			else
+				request.mode = request.mode.combine(mode);
+			mode = intention;
+			current = current.getParent();
+			depth--;
+		}
+	}
+
+	/**
+	 *   
+	 * @return false       ( )
+	 * @throws FileSystemException -       
+	 */
+	public boolean acquire() throws FileSystemException
+	{
+		ordered.clear();
+		ordered.addAll(requests.values());
+		Collections.sort(ordered, order);
+		try {
+			for (Request request : ordered)
+			{
+				request.node.acquire(request.mode, deadline);
+				request.granted = true;
+			}
+		} catch (FileSystemException e) {
+			release();
+			throw e;
+		}
+		for (Request request : ordered)
+		{
+			//  ,        
+			if (request.node.getParent() != request.parent || (request.parent == null && !request.node.isRoot()))
+			{
+				release();
+				if (System.nanoTime() - deadline > 0)
+					throw new FileSystemException(String.format("Object %s is being edited by another user", request.node.getName()));
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 *    ( )
+	 */
+	public void release()
+	{
+		for (int i = ordered.size() - 1; i >= 0; i--)
+		{
+			Request request = ordered.get(i);
+			if (request.granted)
+			{
+				request.granted = false;
+				request.node.release(request.mode);
+			}
+		}
+	}
+
+	/**
+	 *      .    .
+	 */
+	public void clear()
+	{
+		release();
+		requests.clear();
+		ordered.clear();
+	}
+}
@@ -1,5 +1,8 @@
 package ru.chervanev.vfs;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+
 /**
  *    
  */
@@ -12,7 +15,31 @@ public interface IFileSystem
 	void del(String fileName) throws FileSystemException;
 	void lock(String fileName, String userName) throws FileSystemException;
 	void unlock(String fileName, String userName) throws FileSystemException;
+	//     ttl     
+	void lock(String fileName, String userName, long ttl) throws FileSystemException;
+	void renew(String fileName, String userName, long ttl) throws FileSystemException;
+	//     
+	void setLeaseListener(ILeaseListener listener);
 	void copy(String source, String dirName) throws FileSystemException;
 	void move(String source, String dirName) throws FileSystemException;
+	//  : ,   ,      
+	int read(String fileName, long offset, ByteBuffer target) throws FileSystemException;
+	//   :     (  )
+	Content.Slices slices(String fileName, long offset, long length) throws FileSystemException;
+	void write(String fileName, String userName, long offset, ByteBuffer data) throws FileSystemException;
+	void append(String fileName, String userName, ByteBuffer data) throws FileSystemException;
+	void truncate(String fileName, String userName, long length) throws FileSystemException;
+	//      
+	void replace(String fileName, String userName, ByteBuffer data) throws FileSystemException;
 	Directory listFileSystem();
+	//    (  )    
+	Snapshot snapshot();
+	//       
+	Directory findDir(String dirName) throws FileSystemException;
+	File findFile(String fileName) throws FileSystemException;
+	// ,  ,     
+	List<File> lockedFiles(String userName);
+	int unlockAll(String userName) throws FileSystemException;
+	//    (    )
+	Snapshot snapshot(String dirName) throws FileSystemException;
 }
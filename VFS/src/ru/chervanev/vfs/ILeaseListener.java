@@ -0,0 +1,13 @@
+package ru.chervanev.vfs;
+
+/**
+ *       
+ */
+public interface ILeaseListener
+{
+	/**
+	 *     
+	 * @param fileName -   
+	 */
+	void leaseExpired(String userName, String fileName);
+}
@@ -6,4 +6,15 @@ public interface ISession {
 	String getUserName();
 	void notifySession(String message);
 	void notifySystem(String message);
+	/**
+	 *       
+	 * @param paths -       (   )
+	 */
+	void notifySystem(String message, String[] paths);
+	/**
+	 *   ,    
+	 * @param protocol - text ( )  tagged
+	 * @throws FileSystemException -    
+	 */
+	void setProtocol(String protocol) throws FileSystemException;
 }
@@ -0,0 +1,39 @@
+package ru.chervanev.vfs;
+
+/**
+ *    :     ,
+ *     .     MemoryVFS.
+ */
+public class Lease extends TimerWheel.Timeout
+{
+	private final File file;
+	private final String userName;
+	//  ,     (    )
+	private volatile boolean active = true;
+
+	public Lease(File file, String userName)
+	{
+		this.file = file;
+		this.userName = userName;
+	}
+
+	public File getFile()
+	{
+		return file;
+	}
+
+	public String getUserName()
+	{
+		return userName;
+	}
+
+	public boolean isActive()
+	{
+		return active;
+	}
+
+	void deactivate()
+	{
+		active = false;
+	}
+}
@@ -0,0 +1,56 @@
+package ru.chervanev.vfs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *     .
+ *
+ *        (File),     ,
+ *   .     MemoryVFS,
+ *    .
+ */
+public class LockTable
+{
+	private final ConcurrentHashMap<String, Set<File>> byUser = new ConcurrentHashMap<String, Set<File>>();
+
+	void add(String user, File file)
+	{
+		Set<File> files = byUser.get(user);
+		if (files == null)
+		{
+			files = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+			byUser.put(user, files);
+		}
+		files.add(file);
+	}
+
+	void remove(String user, File file)
+	{
+		Set<File> files = byUser.get(user);
+		if (files != null && files.remove(file) && files.isEmpty())
+			byUser.remove(user);
+	}
+
+	/**
+	 * ,   ()
+	 */
+	public List<String> users()
+	{
+		return new ArrayList<String>(byUser.keySet());
+	}
+
+	/**
+	 * ,   ()
+	 */
+	public List<File> files(String user)
+	{
+		Set<File> files = byUser.get(user);
+		if (files == null)
+			return Collections.<File>emptyList();
+		return new ArrayList<File>(files);
+	}
+}
@@ -0,0 +1,154 @@
+package ru.chervanev.vfs;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *      .
+ *
+ *      (DirectoryVersion)      
+ *    :    ,    
+ *   ,          .
+ *        ,    .
+ */
+public class LockVersion extends NodeVersion
+{
+	//     ( )   
+	private final VersionTree<LockVersion> dirs;
+	private final VersionTree<Lockers> files;
+	//     
+	private final int count;
+
+	public LockVersion(String name)
+	{
+		this(name, null, null, 0);
+	}
+
+	private LockVersion(String name, VersionTree<LockVersion> dirs, VersionTree<Lockers> files, int count)
+	{
+		super(name);
+		this.dirs = dirs;
+		this.files = files;
+		this.count = count;
+	}
+
+	/**
+	 *      
+	 */
+	public int getCount()
+	{
+		return count;
+	}
+
+	/**
+	 *    
+	 * @return   null,      
+	 */
+	public LockVersion getDir(String name)
+	{
+		return VersionTree.get(dirs, name);
+	}
+
+	/**
+	 *  
+	 * @return   null,    
+	 */
+	public Lockers getLockers(String fileName)
+	{
+		return VersionTree.get(files, fileName);
+	}
+
+	/**
+	 *      (     , O())
+	 * @return    null,    
+	 */
+	public String findLocked()
+	{
+		LockVersion dir = this;
+		while (dir.count != 0)
+		{
+			if (dir.files != null)
+				return dir.files.item.getName();
+			dir = dir.dirs.item;
+		}
+		return null;
+	}
+
+	/**
+	 *       
+	 */
+	LockVersion withDir(LockVersion dir)
+	{
+		LockVersion old = VersionTree.get(dirs, dir.getName());
+		if (old == dir || old == null && dir.count == 0)
+			return this;
+		int total = count + dir.count - (old != null ? old.count : 0);
+		VersionTree<LockVersion> changed = dir.count != 0 ? VersionTree.put(dirs, dir) : VersionTree.remove(dirs, dir.getName());
+		return new LockVersion(getName(), changed, files, total);
+	}
+
+	LockVersion withoutDir(String name)
+	{
+		LockVersion old = VersionTree.get(dirs, name);
+		if (old == null)
+			return this;
+		return new LockVersion(getName(), VersionTree.remove(dirs, name), files, count - old.count);
+	}
+
+	/**
+	 *     ,   ( -   )
+	 */
+	LockVersion withFile(String fileName, Collection<String> users)
+	{
+		if (users.isEmpty())
+			return withoutFile(fileName);
+		Lockers old = VersionTree.get(files, fileName);
+		Lockers lockers = new Lockers(fileName, users.toArray(new String[users.size()]));
+		return new LockVersion(getName(), dirs, VersionTree.put(files, lockers), old == null ? count + 1 : count);
+	}
+
+	LockVersion withoutFile(String fileName)
+	{
+		if (VersionTree.get(files, fileName) == null)
+			return this;
+		return new LockVersion(getName(), dirs, VersionTree.remove(files, fileName), count - 1);
+	}
+
+	/**
+	 * ,  ,    
+	 */
+	public static class Lockers extends NodeVersion
+	{
+		private final String[] users;
+
+		Lockers(String fileName, String[] users)
+		{
+			super(fileName);
+			this.users = users;
+		}
+
+		public List<String> getUsers()
+		{
+			return Collections.unmodifiableList(Arrays.asList(users));
+		}
+
+		/**
+		 *        
+		 */
+		public String lockInfo()
+		{
+			StringBuilder sb = new StringBuilder();
+			sb.append("[LOCKED by ");
+			for(int i=0;i<users.length;i++)
+			{
+				if (i!=0)
+					sb.append(", ");
+				sb.append(users[i]);
+			}
+			sb.append("]");
+			return sb.toString();
+		}
+	}
+}
@@ -1,9 +1,32 @@
 package ru.chervanev.vfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
 /**
  *    
  * 
  *          
  *
+ *       :   
+ *    ,        .
+ *    (snapshot)        .
+ *
+ *    ( -     )     
+ *   -.     ;      ,
+ *           .
+ *
+ *         (Content);     
+ *      ,    .
  */
 public class MemoryVFS implements IFileSystem {
 
@@ -11,6 +34,29 @@ public class MemoryVFS implements IFileSystem {
 	private static MemoryVFS instance = new MemoryVFS();
 	//     :
 	private Directory root;
+	//        (     )
+	private final ReentrantLock publishing = new ReentrantLock();
+	private volatile Snapshot snapshot;
+	//      ( -     )
+	private final ConcurrentHashMap<NameKey, Directory> dirIndex = new ConcurrentHashMap<NameKey, Directory>();
+	private final ConcurrentHashMap<NameKey, File> fileIndex = new ConcurrentHashMap<NameKey, File>();
+	//    
+	private final LockTable userLocks = new LockTable();
+	//   :  100 ,   - 51.2 
+	private static final long LEASE_TICK = 100;
+	private final TimerWheel leases = new TimerWheel(LEASE_TICK, 512, new TimerWheel.Handler() {
+		public void expired(List<TimerWheel.Timeout> timeouts)
+		{
+			expire(timeouts);
+		}
+	});
+	private volatile ILeaseListener leaseListener;
+	//   (null -   )
+	private volatile WriteAheadLog journal;
+	//     
+	private final Object checkpointing = new Object();
+	//       (     )
+	private static final int JOURNAL_DATA = 1 << 20;
 	
 	public static MemoryVFS getInstance()
 	{		
@@ -22,20 +68,24 @@ public class MemoryVFS implements IFileSystem {
 		root = new Directory("");
 		try {
 			//    :
-			new Directory(root, "C:");
+			index(new Directory(root, "C:"), "C:");
 		} catch (FileSystemException e) {
 			// nothing to do			
 		}
+		root.getVersion().retain();
+		snapshot = new Snapshot(root.getVersion(), root.getLocks());
 	}
 
 	/**
 	 *  .    .
-	 *       .
-	 *       -  . 
+	 *     :     ,
+	 *      .
+	 *       -    . 
 	 */
 	@Override
 	public void md(String dirName) throws FileSystemException 
 	{
+		checkJournal();
 		//   \  		
 		if (dirName.endsWith("\\"))
 			dirName = dirName.substring(0, dirName.length()-1);
@@ -52,97 +102,197 @@ public class MemoryVFS implements IFileSystem {
 		// "\"    
 		child = dirName.substring(i+1, dirName.length());
 		
-		//  :
-		parentDir = root.findDir(parent);
-
-		//   .     ,   ..
-		parentDir.beginUpdate();
+		//      .     ,   ..
+		HierarchyLock lock = new HierarchyLock();
+		do
+		{
+			lock.clear();
+			parentDir = findDir(parent);
+			lock.update(parentDir);
+		} while (!lock.acquire() || !located(parentDir, parent));
+		long record;
 		try
 		{
-			//
-			new Directory(parentDir, child);
+			Directory created;
+			beginPublish();
+			try
+			{
+				//
+				created = new Directory(parentDir, child);
+				record = log(WriteAheadLog.MD, 0, created.getFullName());
+			}
+			finally
+			{
+				endPublish(parentDir);
+			}
+			//     ,     
+			index(created, created.getFullName());
 		}
 		finally
 		{
-			parentDir.endUpdate();
+			lock.release();
 		}
-
+		commit(record);
 	}
 
 	/**
 	 *  .        .  
 	 * 
-	 *     .
-	 *            -  .
+	 *      (  ).
+	 *            -    .
 	 */
 	@Override
 	public void rd(String dirName) throws FileSystemException {
-		Directory dir = root.findDir(dirName);
-		if (dir.getParent()==root)
-			throw new FileSystemException(String.format("Cannot delete root directory: %s", dirName));
-
-		//       
-		dir.beginUpdate();
+		checkJournal();
+		Directory dir;
+		HierarchyLock lock = new HierarchyLock();
+		do
+		{
+			lock.clear();
+			dir = findDir(dirName);
+			if (dir.getParent()==root)
+				throw new FileSystemException(String.format("Cannot delete root directory: %s", dirName));
+			//       
+			lock.exclusive(dir);
+		} while (!lock.acquire() || !located(dir, dirName));
+		Directory parentDir = dir.getParent();
+		String path = dir.getFullName();
+		long record;
 		try
 		{
 			if (dir.hasChildren())
 			{
 				throw new FileSystemException(String.format("Cannot delete directory: %s - sub directory exists", dirName));
 			}
-			dir.delete();
-		}catch(FileSystemException e)
+			beginPublish();
+			try
+			{
+				dir.delete();
+				record = log(WriteAheadLog.RD, 0, path);
+			}
+			finally
+			{
+				endPublish(parentDir);
+			}
+			unindex(dir, path);
+		}
+		finally
 		{
-			//      
-			//   ,   
-			dir.endUpdate();
-			throw e;
+			lock.release();
 		}
+		commit(record);
 	}
 
 	/**
 	 *      .
 	 *     .
 	 * 
-	 *      .
-	 *            -  .
+	 *     ,     .
+	 *            -    .
 	 */
 	@Override
 	public void delTree(String dirName) throws FileSystemException {
-		Directory dir = root.findDir(dirName);
-		if (dir.getParent()==root)
-			throw new FileSystemException(String.format("Cannot delete root directory: %s", dirName));
-
-		dir.beginUpdateResursive();
+		checkJournal();
+		Directory dir;
+		HierarchyLock lock = new HierarchyLock();
+		do
+		{
+			lock.clear();
+			dir = findDir(dirName);
+			if (dir.getParent()==root)
+				throw new FileSystemException(String.format("Cannot delete root directory: %s", dirName));
+			lock.exclusive(dir);
+		} while (!lock.acquire() || !located(dir, dirName));
+		Directory parentDir = dir.getParent();
+		String path = dir.getFullName();
+		long record;
 		try
 		{
-			dir.delTree();
-		}catch(FileSystemException ex)
+			//       (  )
+			beginPublish();
+			try
+			{
+				dir.delete();
+				record = log(WriteAheadLog.DELTREE, 0, path);
+			}
+			finally
+			{
+				endPublish(parentDir);
+			}
+			//       
+			unindex(dir, path);
+			dir.delChildren();
+		}
+		finally
 		{
-			dir.endUpdateResursive();
-			throw ex;
+			lock.release();
 		}		
+		commit(record);
 	}
 
 	/**
 	 *  .   .
-	 *       .
+	 *        .
 	 */
 	@Override
 	public void mf(String fileName) throws FileSystemException 
 	{
-		FileHelper helper = new FileHelper(fileName, false);
-		helper.createFile();
+		checkJournal();
+		HierarchyLock lock = new HierarchyLock();
+		FileHelper helper;
+		do
+		{
+			lock.clear();
+			helper = new FileHelper(fileName, false);
+			lock.update(helper.directory);
+		} while (!lock.acquire() || !located(helper.directory, helper.parent));
+		long record;
+		try	{
+			beginPublish();
+			try	{
+				helper.createFile();
+				record = log(WriteAheadLog.MF, 0, helper.file.getFullName());
+			}finally{
+				endPublish(helper.directory);
+			}
+			fileIndex.put(pathKey(helper.file.getFullName()), helper.file);
+		}finally{
+			lock.release();
+		}
+		commit(record);
 	}
 
 	/**
 	 *  .   .
-	 *       .
+	 *     .
 	 */
 	@Override
 	public void del(String fileName) throws FileSystemException 
 	{
-		FileHelper helper = new FileHelper(fileName, true);
-		helper.deleteFile();
+		checkJournal();
+		HierarchyLock lock = new HierarchyLock();
+		FileHelper helper;
+		do
+		{
+			lock.clear();
+			helper = new FileHelper(fileName, true);
+			lock.exclusive(helper.getFile());
+		} while (!lock.acquire() || !located(helper.getFile(), fileName));
+		long record;
+		try	{
+			String path = helper.getFile().getFullName();
+			beginPublish();
+			try	{
+				helper.getFile().delete();
+				record = log(WriteAheadLog.DEL, 0, path);
+			}finally{
+				endPublish(helper.directory);
+			}
+			fileIndex.remove(pathProbe(fileName), helper.file);
+		}finally{
+			lock.release();
+		}
+		commit(record);
 	}
 
 	/**
@@ -152,8 +302,36 @@ public class MemoryVFS implements IFileSystem {
 	@Override
 	public void lock(String fileName, String userName) throws FileSystemException 
 	{
-		FileHelper helper = new FileHelper(fileName, true);
-		helper.getFile().lock(userName);
+		lock(fileName, userName, 0);
+	}
+
+	/**
+	 *     :    ttl ,
+	 *      (renew).  ttl = 0  .
+	 */
+	@Override
+	public void lock(String fileName, String userName, long ttl) throws FileSystemException 
+	{
+		checkJournal();
+		FileHelper helper = lockFile(fileName);
+		long record;
+		beginPublish();
+		try	{
+			File file = helper.getFile();
+			file.lock(userName);
+			userLocks.add(userName, file);
+			if (ttl > 0)
+			{
+				Lease lease = new Lease(file, userName);
+				file.setLease(userName, lease);
+				leases.schedule(lease, ttl);
+			}
+			record = log(WriteAheadLog.LOCK, ttl, file.getFullName(), userName);
+		}finally{
+			endPublish(helper.directory);
+			helper.lock.release();
+		}
+		commit(record);
 	}
 
 	/**
@@ -163,8 +341,443 @@ public class MemoryVFS implements IFileSystem {
 	@Override
 	public void unlock(String fileName, String userName) throws FileSystemException 
 	{
-		FileHelper helper = new FileHelper(fileName, true);
-		helper.getFile().unlock(userName);
+		checkJournal();
+		FileHelper helper = lockFile(fileName);
+		long record;
+		beginPublish();
+		try	{
+			record = unlockFile(helper.getFile(), userName);
+		}finally{
+			endPublish(helper.directory);
+			helper.lock.release();
+		}
+		commit(record);
+	}
+
+	/**
+	 *    :   .
+	 *    .
+	 */
+	@Override
+	public void renew(String fileName, String userName, long ttl) throws FileSystemException
+	{
+		checkJournal();
+		if (ttl <= 0)
+			throw new FileSystemException("Lease time must be positive");
+		FileHelper helper = lockFile(fileName);
+		long record;
+		//   :          
+		beginPublish();
+		try	{
+			File file = helper.getFile();
+			if (!file.isLockedBy(userName))
+				throw new FileSystemException(String.format("File %s is not locked by %s", file.getName(), userName));
+			Lease lease = file.getLease(userName);
+			if (lease == null)
+			{
+				lease = new Lease(file, userName);
+				file.setLease(userName, lease);
+			}
+			leases.schedule(lease, ttl);
+			record = log(WriteAheadLog.RENEW, ttl, file.getFullName(), userName);
+		}finally{
+			endPublish();
+			helper.lock.release();
+		}
+		commit(record);
+	}
+
+	@Override
+	public void setLeaseListener(ILeaseListener listener)
+	{
+		leaseListener = listener;
+	}
+
+	/**
+	 *      (  ),    .
+	 *     :  ,   ,
+	 *  ,    ,    .
+	 *      .
+	 */
+	private void expire(List<TimerWheel.Timeout> timeouts)
+	{
+		try {
+			checkJournal();
+		} catch (FileSystemException e) {
+			for (TimerWheel.Timeout timeout : timeouts)
+				leases.retry(timeout, LEASE_TICK);
+			return;
+		}
+		ArrayList<HierarchyLock> locks = new ArrayList<HierarchyLock>();
+		HashSet<File> files = new HashSet<File>();
+		ArrayList<Lease> batch = new ArrayList<Lease>();
+		for (TimerWheel.Timeout timeout : timeouts)
+		{
+			Lease lease = (Lease)timeout;
+			//    (     )
+			if (!lease.isActive())
+				continue;
+			File file = lease.getFile();
+			if (!files.contains(file))
+			{
+				HierarchyLock lock = new HierarchyLock(0);
+				lock.exclusive(file);
+				boolean acquired;
+				try {
+					acquired = lock.acquire();
+				} catch (FileSystemException e) {
+					acquired = false;
+				}
+				if (!acquired)
+				{
+					leases.retry(lease, LEASE_TICK);
+					continue;
+				}
+				files.add(file);
+				locks.add(lock);
+			}
+			batch.add(lease);
+		}
+		if (batch.isEmpty())
+			return;
+		LinkedHashSet<Directory> changed = new LinkedHashSet<Directory>();
+		ArrayList<Lease> expired = new ArrayList<Lease>();
+		ArrayList<String> names = new ArrayList<String>();
+		beginPublish();
+		try	{
+			for (Lease lease : batch)
+			{
+				//        
+				if (!lease.isActive() || !lease.isExpired())
+					continue;
+				File file = lease.getFile();
+				try {
+					unlockFile(file, lease.getUserName());
+				} catch (FileSystemException e) {
+					leases.retry(lease, LEASE_TICK);
+					continue;
+				}
+				changed.add(file.getParent());
+				expired.add(lease);
+				names.add(file.getFullName());
+			}
+		}finally{
+			endPublish(changed.toArray(new Directory[changed.size()]));
+			for (HierarchyLock lock : locks)
+				lock.release();
+		}
+		ILeaseListener listener = leaseListener;
+		if (listener != null)
+			for (int i = 0; i < expired.size(); i++)
+				listener.leaseExpired(expired.get(i).getUserName(), names.get(i));
+	}
+
+	/**
+	 *       
+	 * @return   
+	 */
+	private long unlockFile(File file, String userName) throws FileSystemException
+	{
+		Lease lease = file.getLease(userName);
+		file.unlock(userName);
+		userLocks.remove(userName, file);
+		if (lease != null)
+			leases.cancel(lease);
+		return log(WriteAheadLog.UNLOCK, 0, file.getFullName(), userName);
+	}
+
+	/**
+	 * ,  
+	 */
+	@Override
+	public List<File> lockedFiles(String userName)
+	{
+		return userLocks.files(userName);
+	}
+
+	/**
+	 *      ( ).
+	 *     ,    .
+	 * @return   
+	 */
+	@Override
+	public int unlockAll(String userName) throws FileSystemException
+	{
+		checkJournal();
+		if (userLocks.files(userName).isEmpty())
+			return 0;
+		HierarchyLock lock = new HierarchyLock();
+		List<File> files;
+		do
+		{
+			lock.clear();
+			files = userLocks.files(userName);
+			for (File file : files)
+				lock.exclusive(file);
+		} while (!lock.acquire());
+		LinkedHashSet<Directory> changed = new LinkedHashSet<Directory>();
+		int count = 0;
+		long record = 0;
+		beginPublish();
+		try	{
+			for (File file : files)
+			{
+				if (!file.isLockedBy(userName))
+					continue;
+				record = unlockFile(file, userName);
+				changed.add(file.getParent());
+				count++;
+			}
+		}finally{
+			endPublish(changed.toArray(new Directory[changed.size()]));
+			lock.release();
+		}
+		commit(record);
+		return count;
+	}
+
+	/**
+	 *      offset   target.
+	 *       .
+	 * @return   , -1 -    
+	 */
+	@Override
+	public int read(String fileName, long offset, ByteBuffer target) throws FileSystemException
+	{
+		if (offset < 0)
+			throw new FileSystemException(String.format("Invalid offset %d", offset));
+		FileHelper helper = shareFile(fileName);
+		try {
+			return helper.getFile().getContent().read(offset, target);
+		} finally {
+			helper.lock.release();
+		}
+	}
+
+	/**
+	 *     :      offset,
+	 *   length  (  ).      .
+	 *        ;    .
+	 */
+	@Override
+	public Content.Slices slices(String fileName, long offset, long length) throws FileSystemException
+	{
+		if (offset < 0)
+			throw new FileSystemException(String.format("Invalid offset %d", offset));
+		if (length < 0)
+			throw new FileSystemException(String.format("Invalid length %d", length));
+		FileHelper helper = shareFile(fileName);
+		try {
+			return helper.getFile().getContent().slices(offset, length);
+		} finally {
+			helper.lock.release();
+		}
+	}
+
+	/**
+	 *       offset (  data  ).
+	 *     ; ,   ,  .
+	 */
+	@Override
+	public void write(String fileName, String userName, long offset, ByteBuffer data) throws FileSystemException
+	{
+		if (offset < 0)
+			throw new FileSystemException(String.format("Invalid offset %d", offset));
+		write(fileName, userName, offset, false, data);
+	}
+
+	/**
+	 *     
+	 */
+	@Override
+	public void append(String fileName, String userName, ByteBuffer data) throws FileSystemException
+	{
+		write(fileName, userName, 0, true, data);
+	}
+
+	/**
+	 *    
+	 * @param append -     (offset  )
+	 */
+	private void write(String fileName, final String userName, final long offset, final boolean append, final ByteBuffer data) throws FileSystemException
+	{
+		change(fileName, new ContentChange() {
+			//   
+			private long position = offset;
+
+			@Override
+			Content apply(File file) throws FileSystemException
+			{
+				if (append)
+					position = file.getContent().length();
+				return file.write(userName, position, data);
+			}
+
+			@Override
+			long log(File file)
+			{
+				//     
+				if (!data.hasRemaining())
+					return 0;
+				return logData(WriteAheadLog.WRITE, position, data, file.getFullName(), userName);
+			}
+		});
+	}
+
+	/**
+	 *     data:       
+	 *        ( 
+	 *         )
+	 */
+	@Override
+	public void replace(String fileName, final String userName, final ByteBuffer data) throws FileSystemException
+	{
+		change(fileName, new ContentChange() {
+			@Override
+			Content apply(File file) throws FileSystemException
+			{
+				return file.replace(userName, data);
+			}
+
+			@Override
+			long log(File file)
+			{
+				return logData(WriteAheadLog.REPLACE, 0, data, file.getFullName(), userName);
+			}
+		});
+	}
+
+	/**
+	 *   
+	 */
+	private static abstract class ContentChange
+	{
+		/**
+		 *    (   ,   )
+		 */
+		abstract Content apply(File file) throws FileSystemException;
+
+		/**
+		 *     (  )
+		 * @return   , 0 -   
+		 */
+		abstract long log(File file);
+	}
+
+	/**
+	 *   .   ;   
+	 *   ,         .
+	 *       ,     ;
+	 *       .
+	 */
+	private void change(String fileName, ContentChange change) throws FileSystemException
+	{
+		checkJournal();
+		FileHelper helper = lockFile(fileName);
+		long record;
+		Content previous = null;
+		Content content = null;
+		//            
+		Content.beginChange();
+		try	{
+			File file = helper.getFile();
+			previous = file.getContent();
+			content = change.apply(file);
+			beginPublish();
+			try {
+				file.setContent(content);
+				record = change.log(file);
+			} finally {
+				endPublish(helper.directory);
+			}
+		}finally{
+			Content.endChange();
+			helper.lock.release();
+			if (content != null && content != previous)
+				content.release();
+		}
+		commit(record);
+	}
+
+	/**
+	 *    ,      offset.   JOURNAL_DATA
+	 *   :  -  type,  - WRITE.
+	 * @return   
+	 */
+	private long logData(byte type, long offset, ByteBuffer data, String path, String userName)
+	{
+		long record;
+		ByteBuffer piece = data.duplicate();
+		do
+		{
+			int size = Math.min(piece.remaining(), JOURNAL_DATA);
+			piece.limit(piece.position() + size);
+			record = log(type, offset, piece, path, userName);
+			type = WriteAheadLog.WRITE;
+			offset += size;
+			piece.position(piece.limit()).limit(data.limit());
+		} while (piece.hasRemaining());
+		return record;
+	}
+
+	/**
+	 *    (    )
+	 *     ; ,   ,  .
+	 */
+	@Override
+	public void truncate(String fileName, final String userName, final long length) throws FileSystemException
+	{
+		if (length < 0)
+			throw new FileSystemException(String.format("Invalid length %d", length));
+		change(fileName, new ContentChange() {
+			@Override
+			Content apply(File file) throws FileSystemException
+			{
+				return file.truncate(userName, length);
+			}
+
+			@Override
+			long log(File file)
+			{
+				return MemoryVFS.this.log(WriteAheadLog.TRUNCATE, length, file.getFullName(), userName);
+			}
+		});
+	}
+
+	/**
+	 *      
+	 * @return       
+	 */
+	private FileHelper lockFile(String fileName) throws FileSystemException
+	{
+		HierarchyLock lock = new HierarchyLock();
+		FileHelper helper;
+		do
+		{
+			lock.clear();
+			helper = new FileHelper(fileName, true);
+			lock.exclusive(helper.getFile());
+		} while (!lock.acquire() || !located(helper.getFile(), fileName));
+		helper.lock = lock;
+		return helper;
+	}
+
+	/**
+	 *       
+	 * @return       
+	 */
+	private FileHelper shareFile(String fileName) throws FileSystemException
+	{
+		HierarchyLock lock = new HierarchyLock();
+		FileHelper helper;
+		do
+		{
+			lock.clear();
+			helper = new FileHelper(fileName, true);
+			lock.shared(helper.getFile());
+		} while (!lock.acquire() || !located(helper.getFile(), fileName));
+		helper.lock = lock;
+		return helper;
 	}
 
 	/***
@@ -175,108 +788,570 @@ public class MemoryVFS implements IFileSystem {
 	 */
 	private Object parseSource(String source) throws FileSystemException
 	{
-		try
-		{
-			return root.findDir(source);
-		}catch(FileSystemException x)
-		{
-		}
-		try
-		{
-			return new FileHelper(source, true).getFile();
-		}catch(FileSystemException x)
-		{
+		NameKey key = pathProbe(source);
+		Directory dir = dirIndex.get(key);
+		if (dir != null)
+			return dir;
+		File file = fileIndex.get(key);
+		if (file != null)
+			return file;
+		//  :     (    )
+		Object found = root.lookup(source);
+		if (found == null)
 			throw new FileSystemException(String.format("Source file or directory %s is not found", source));
-		}
-		
+		return found;
 	}
 	/**
-	 *        .
+	 *       .
+	 *       (O(1)),      .
 	 *
 	 *    :
 	 * 
-	 *        
-	 *         
-	 *    
+	 *     (  )   
+	 *     
 	 */
 	@Override
 	public void copy(String source, String dirName) throws FileSystemException 
 	{
+		checkJournal();
 		//    -  ,  . 
 		//      
 		//       
-		Object src = parseSource(source);
-				Directory destDir = root.findDir(dirName);
-		destDir.beginUpdate();
+		Object src;
+		Directory destDir;
+		HierarchyLock lock = new HierarchyLock();
+		do
+		{
+			lock.clear();
+			src = parseSource(source);
+			destDir = findDir(dirName);
+			lock.shared((AtomEdit)src);
+			lock.update(destDir);
+		} while (!lock.acquire() || !located((AtomEdit)src, source) || !located(destDir, dirName));
+		long record;
 		try
 		{
+			String path = ((AtomEdit)src).getFullName();
 			if (src.getClass().isAssignableFrom(Directory.class) )
 			{
-				Directory srcDir = (Directory)src;
-				srcDir.beginUpdateResursive();
-				try	{
-					srcDir.copy(destDir);
-				}finally{
-					srcDir.endUpdateResursive();
+				//     ,      
+				Directory copy = ((Directory)src).copy();
+				try {
+					beginPublish();
+					try {
+						copy.attach(destDir);
+						record = log(WriteAheadLog.COPY, 0, path, destDir.getFullName());
+					} finally {
+						endPublish(destDir);
+					}
+				} catch (FileSystemException e) {
+					copy.releaseOrigin();
+					throw e;
 				}
-			} else
+				index(copy, copy.getFullName());
+			}
+			else
 			{
-				File srcFile = (File)src;
-				srcFile.beginUpdate();
-				try	{
-					srcFile.copy(destDir);
-				}finally{
-					srcFile.endUpdate();
+				File copy;
+				beginPublish();
+				try {
+					copy = ((File)src).copy(destDir);
+					record = log(WriteAheadLog.COPY, 0, path, destDir.getFullName());
+				} finally {
+					endPublish(destDir);
 				}
+				fileIndex.put(pathKey(copy.getFullName()), copy);
 			}
 		}
 		finally{
-			destDir.endUpdate();
+			lock.release();
 		}
-		
+		commit(record);
 	}
 	/**
 	 *       
 	 * 
-	 *         
-	 *        
+	 *       (  ),
+	 *     
 	 */
 	@Override
 	public void move(String source, String dirName) throws FileSystemException 
 	{
+		checkJournal();
 		//    -  ,  . 
 		//      
 		//       
-		Object src = parseSource(source);
-		Directory destDir = root.findDir(dirName);
-		
-		destDir.beginUpdate();
+		Object src;
+		Directory destDir;
+		HierarchyLock lock = new HierarchyLock();
+		do
+		{
+			lock.clear();
+			src = parseSource(source);
+			destDir = findDir(dirName);
+			lock.exclusive((AtomEdit)src);
+			lock.update(destDir);
+		} while (!lock.acquire() || !located((AtomEdit)src, source) || !located(destDir, dirName));
+		Directory srcDir = ((AtomEdit)src).getParent();
+		//        
+		if (src == destDir || (src instanceof Directory && destDir.isChild((Directory)src)))
+		{
+			lock.release();
+			throw new FileSystemException(String.format("Cannot move directory %s into itself", source));
+		}
+		long record;
 		try
 		{
+			String path = ((AtomEdit)src).getFullName();
+			beginPublish();
+			try
+			{
+				if (src.getClass().isAssignableFrom(Directory.class) )
+					((Directory)src).move(destDir);
+				else
+					((File)src).move(destDir);
+				record = log(WriteAheadLog.MOVE, 0, path, destDir.getFullName());
+			}
+			finally
+			{
+				endPublish(srcDir, destDir);
+			}
+			//        
 			if (src.getClass().isAssignableFrom(Directory.class) )
 			{
-				Directory srcDir = (Directory)src;
-				srcDir.beginUpdateResursive();
-				try{
-					srcDir.move(destDir);
-				}finally{
-					srcDir.endUpdateResursive();
-				}				
-			} else
+				Directory srcDirectory = (Directory)src;
+				unindex(srcDirectory, path);
+				index(srcDirectory, srcDirectory.getFullName());
+			}
+			else
 			{
 				File srcFile = (File)src;
-				srcFile.beginUpdate();
+				fileIndex.remove(pathKey(path), srcFile);
+				fileIndex.put(pathKey(srcFile.getFullName()), srcFile);
+			}
+		}
+		finally
+		{
+			lock.release();
+		}
+		commit(record);
+	}
+
+	/**
+	 *     (O(1),  )
+	 */
+	@Override
+	public Snapshot snapshot()
+	{
+		return snapshot;
+	}
+
+	/**
+	 *   :      ,
+	 *       (   )
+	 */
+	@Override
+	public Snapshot snapshot(String dirName) throws FileSystemException
+	{
+		Directory dir = findDir(dirName);
+		publishing.lock();
+		try {
+			return new Snapshot(dir.getVersion(), dir.getLocks());
+		} finally {
+			publishing.unlock();
+		}
+	}
+
+	/**
+	 *     : ,   -   
+	 */
+	@Override
+	public Directory findDir(String dirName) throws FileSystemException
+	{
+		Directory dir = dirIndex.get(pathProbe(dirName));
+		return dir != null ? dir : root.findDir(dirName);
+	}
+
+	/**
+	 *     : ,   -   
+	 */
+	@Override
+	public File findFile(String fileName) throws FileSystemException
+	{
+		File file = fileIndex.get(pathProbe(fileName));
+		return file != null ? file : root.findFile(fileName);
+	}
+
+	/**
+	 *   :    "\"
+	 */
+	static NameKey pathKey(String path)
+	{
+		return new NameKey(path, 0, pathEnd(path));
+	}
+
+	/**
+	 *        (  )
+	 */
+	static NameKey pathProbe(String path)
+	{
+		return NameKey.probe(path, 0, pathEnd(path));
+	}
+
+	/**
+	 *     "\"
+	 */
+	private static int pathEnd(String path)
+	{
+		int end = path.length();
+		while (end > 0 && path.charAt(end - 1) == '\\')
+			end--;
+		return end;
+	}
+
+	/**
+	 * ,    -    
+	 * (        ).
+	 *
+	 *  ,     (   ), 
+	 *    :         , 
+	 *      (      ).
+	 */
+	private boolean located(AtomEdit node, String path)
+	{
+		String name = node instanceof Directory ? ((Directory)node).getFullName() : ((File)node).getFullName();
+		int end = pathEnd(path);
+		if (pathEnd(name) != end || !name.regionMatches(true, 0, path, 0, end))
+			return false;
+		if (node instanceof Directory)
+		{
+			if (dirIndex.get(pathProbe(path)) != node)
+				dirIndex.put(pathKey(path), (Directory)node);
+		}
+		else if (fileIndex.get(pathProbe(path)) != node)
+			fileIndex.put(pathKey(path), (File)node);
+		return true;
+	}
+
+	/**
+	 *         
+	 */
+	boolean isIndexed(String path)
+	{
+		NameKey key = pathProbe(path);
+		return dirIndex.containsKey(key) || fileIndex.containsKey(key);
+	}
+
+	/**
+	 *        .
+	 *      :     
+	 *          (located).
+	 */
+	private void index(Directory root, String rootPath)
+	{
+		SubtreeWalk.run(root, rootPath, new SubtreeWalk.Visitor() {
+			@Override
+			protected boolean enter(Directory dir, String path)
+			{
+				dirIndex.put(new NameKey(path), dir);
+				if (dir.isShared())
+					return false;
+				for (File file : dir.fileCollection())
+					fileIndex.put(new NameKey(path + "\\" + file.getName()), file);
+				return true;
+			}
+		});
+	}
+
+	/**
+	 *        
+	 * (   ,    :      )
+	 */
+	private void unindex(Directory root, String rootPath)
+	{
+		SubtreeWalk.run(root, rootPath, new SubtreeWalk.Visitor() {
+			@Override
+			protected boolean enter(Directory dir, String path)
+			{
+				dirIndex.remove(pathProbe(path), dir);
+				if (dir.isShared())
+					return false;
+				for (File file : dir.fileCollection())
+					fileIndex.remove(pathProbe(path + "\\" + file.getName()), file);
+				return true;
+			}
+		});
+	}
+
+	/**
+	 *        ,  .
+	 *   ,    .   
+	 *        (restore).
+	 *       
+	 * (     ).
+	 * @return    
+	 */
+	public int openJournal(String fileName) throws IOException
+	{
+		WriteAheadLog log = new WriteAheadLog(fileName);
+		long first = 0;
+		if (new java.io.File(checkpointName(fileName)).exists())
+		{
+			Checkpoint checkpoint = Checkpoint.read(checkpointName(fileName));
+			try {
+				restore(checkpoint);
+			} catch (FileSystemException e) {
+				throw new IOException(e.getMessage(), e);
+			} finally {
+				checkpoint.release();
+			}
+			first = checkpoint.getGeneration();
+		}
+		final Map<Lease, Long> restored = new LinkedHashMap<Lease, Long>();
+		int count = log.replay(first, new WriteAheadLog.Handler() {
+			public void apply(byte type, long value, String[] args, ByteBuffer data) throws FileSystemException
+			{
+				switch (type)
+				{
+				case WriteAheadLog.MD:
+					md(args[0]);
+					break;
+				case WriteAheadLog.RD:
+					rd(args[0]);
+					break;
+				case WriteAheadLog.DELTREE:
+					delTree(args[0]);
+					break;
+				case WriteAheadLog.MF:
+					mf(args[0]);
+					break;
+				case WriteAheadLog.DEL:
+					del(args[0]);
+					break;
+				case WriteAheadLog.LOCK:
+					lock(args[0], args[1], 0);
+					if (value > 0)
+						restoreLease(findFile(args[0]), args[1], value, restored);
+					break;
+				case WriteAheadLog.RENEW:
+					restoreLease(findFile(args[0]), args[1], value, restored);
+					break;
+				case WriteAheadLog.UNLOCK:
+					unlock(args[0], args[1]);
+					break;
+				case WriteAheadLog.COPY:
+					copy(args[0], args[1]);
+					break;
+				case WriteAheadLog.MOVE:
+					move(args[0], args[1]);
+					break;
+				case WriteAheadLog.WRITE:
+					write(args[0], args[1], value, data);
+					break;
+				case WriteAheadLog.TRUNCATE:
+					truncate(args[0], args[1], value);
+					break;
+				case WriteAheadLog.REPLACE:
+					replace(args[0], args[1], data);
+					break;
+				default:
+					throw new FileSystemException(String.format("Unknown journal record %d", type));
+				}
+			}
+		});
+		//       
+		for (Map.Entry<Lease, Long> entry : restored.entrySet())
+			if (entry.getKey().isActive())
+				leases.schedule(entry.getKey(), entry.getValue());
+		journal = log;
+		return count;
+	}
+
+	/**
+	 *     .     ,  
+	 *      :       ,
+	 *             .
+	 *  -        ,    
+	 *   (located).
+	 *    (   ).
+	 */
+	private void restore(Checkpoint checkpoint) throws FileSystemException
+	{
+		DirectoryVersion previous;
+		publishing.lock();
+		try {
+			dirIndex.clear();
+			fileIndex.clear();
+			root = Directory.restore(checkpoint.getRoot());
+			for (Directory top : root.dirCollection())
+				index(top, top.getName());
+			previous = snapshot.getVersion();
+			root.getVersion().retain();
+			snapshot = new Snapshot(root.getVersion(), root.getLocks());
+		} finally {
+			publishing.unlock();
+		}
+		previous.release();
+		for (Map.Entry<String, List<String>> entry : checkpoint.getLocks().entrySet())
+			for (String user : entry.getValue())
+				lock(entry.getKey(), user, 0);
+	}
+
+	/**
+	 *  :         .
+	 *          ,
+	 *      .
+	 * @return false    
+	 */
+	public boolean checkpoint() throws IOException
+	{
+		WriteAheadLog log = journal;
+		if (log == null)
+			return false;
+		synchronized (checkpointing)
+		{
+			Snapshot image;
+			long generation;
+			try {
+				//     
+				Content.capture();
 				try {
-					srcFile.move(destDir);
-				}finally{
-					srcFile.endUpdate();
+					publishing.lock();
+					try {
+						//      
+						image = snapshot;
+						generation = log.rotate();
+						//      
+						long now = System.nanoTime();
+						for (String user : userLocks.users())
+						{
+							for (File file : userLocks.files(user))
+							{
+								Lease lease = file.getLease(user);
+								if (lease == null || !lease.isActive())
+									continue;
+								long ttl = Math.max(1, TimeUnit.NANOSECONDS.toMillis(lease.getDeadline() - now));
+								log.append(WriteAheadLog.RENEW, ttl, file.getFullName(), user);
+							}
+						}
+					} finally {
+						publishing.unlock();
+					}
+				} finally {
+					Content.resume();
 				}
+				Checkpoint.write(checkpointName(log.segmentName(0)), image, generation);
+			} finally {
+				Content.releaseCaptured();
 			}
+			log.deleteBefore(generation);
+			return true;
 		}
-		finally
+	}
+
+	/**
+	 *     
+	 */
+	private static String checkpointName(String journalName)
+	{
+		return journalName + ".checkpoint";
+	}
+
+	/**
+	 *    (   )
+	 */
+	private void restoreLease(File file, String userName, long ttl, Map<Lease, Long> restored)
+	{
+		Lease lease = file.getLease(userName);
+		if (lease == null)
 		{
-			destDir.endUpdate();
+			lease = new Lease(file, userName);
+			file.setLease(userName, lease);
 		}
+		restored.put(lease, ttl);
+	}
+
+	/**
+	 *      (  :   -  )
+	 * @return     , 0 -   
+	 */
+	private long log(byte type, long value, String... args)
+	{
+		WriteAheadLog log = journal;
+		return log == null ? 0 : log.append(type, value, args);
+	}
+
+	/**
+	 *       
+	 */
+	private long log(byte type, long value, ByteBuffer data, String... args)
+	{
+		WriteAheadLog log = journal;
+		return log == null ? 0 : log.append(type, value, data, args);
+	}
+
+	/**
+	 *    :      
+	 *   ,        
+	 */
+	private void checkJournal() throws FileSystemException
+	{
+		WriteAheadLog log = journal;
+		IOException failure = log != null ? log.getFailure() : null;
+		if (failure != null)
+			throw new FileSystemException(String.format("Journal write failed: %s", failure.getMessage()));
+	}
+
+	/**
+	 *      .    :
+	 *     .
+	 */
+	private void commit(long record) throws FileSystemException
+	{
+		WriteAheadLog log = journal;
+		if (log == null || record == 0)
+			return;
+		try {
+			log.sync(record);
+		} catch (IOException e) {
+			throw new FileSystemException(String.format("Journal write failed: %s", e.getMessage()));
+		}
+	}
+
+	/**
+	 *    
+	 */
+	private void beginPublish()
+	{
+		publishing.lock();
+	}
+
+	/**
+	 *   :      
+	 *    .     (   ).
+	 *           :   ,
+	 *      (  )    .
+	 * @param changed - ,   
+	 */
+	private void endPublish(Directory... changed)
+	{
+		DirectoryVersion previous = snapshot.getVersion();
+		DirectoryVersion current = previous;
+		try {
+			for (Directory dir : changed)
+			{
+				for (Directory parent = dir.getParent(); parent != null; dir = parent, parent = parent.getParent())
+					parent.refresh(dir);
+			}
+			current = root.getVersion();
+			if (current != previous)
+				current.retain();
+			snapshot = new Snapshot(current, root.getLocks());
+		} finally {
+			publishing.unlock();
+		}
+		if (current != previous)
+			previous.release();
 	}
 
 	/**
@@ -294,8 +1369,12 @@ public class MemoryVFS implements IFileSystem {
 	private class FileHelper
 	{
 		private Directory directory;
+		//    
+		private String parent;
 		private String fileName;
 		private File file;
+		// ,    
+		private HierarchyLock lock;
 		
 		public FileHelper(String fullName, boolean findFile) throws FileSystemException
 		{
@@ -306,14 +1385,18 @@ public class MemoryVFS implements IFileSystem {
 			}else
 			{
 				//     "\"
-				String parent = fullName.substring(0, i);
+				parent = fullName.substring(0, i);
 				// "\"    
 				fileName = fullName.substring(i+1, fullName.length());
 				
-				directory = root.findDir(parent);
+				directory = findDir(parent);
 			}
 			if (findFile)
-				file = directory.findFile(fileName);
+			{
+				file = fileIndex.get(pathProbe(fullName));
+				if (file == null)
+					file = directory.findFile(fileName);
+			}
 			}
 			
 			public File getFile() 
@@ -322,35 +1405,12 @@ public class MemoryVFS implements IFileSystem {
 			}
 
 			/**
-			 *  ,       
+			 *  ,       .
+			 *      .
 			 */
 			public void createFile() throws FileSystemException 
 			{
-				directory.beginUpdate();
-				try	{
-					file = new File(directory, fileName);
-				}finally{
-					directory.endUpdate();
-				}
-			}
-
-			/**
-			 *  
-			 */
-			public void deleteFile() throws FileSystemException
-			{
-				
-				directory.beginUpdate();
-				try	{
-					file.beginUpdate();
-					try{
-						file.delete();
-					}finally{					
-						file.endUpdate();
-					}
-				}finally{
-					directory.endUpdate();
-				}			
+				file = new File(directory, fileName);
 			}
 	}
 }
@@ -0,0 +1,93 @@
+package ru.chervanev.vfs;
+
+/**
+ *       .
+ *
+ *          ,    ;
+ *      (regionMatches),      .
+ *        (probe),    :
+ *        ,  . -probe    .
+ */
+public class NameKey
+{
+	private static final ThreadLocal<NameKey> probes = new ThreadLocal<NameKey>() {
+		@Override
+		protected NameKey initialValue()
+		{
+			return new NameKey();
+		}
+	};
+
+	private String text;
+	private int offset;
+	private int length;
+	private int hash;
+
+	private NameKey()
+	{
+	}
+
+	public NameKey(String name)
+	{
+		set(name, 0, name.length());
+	}
+
+	/**
+	 *    [from, to)
+	 */
+	public NameKey(String text, int from, int to)
+	{
+		set(text, from, to);
+	}
+
+	/**
+	 *        [from, to)
+	 */
+	public static NameKey probe(String text, int from, int to)
+	{
+		return probes.get().set(text, from, to);
+	}
+
+	private NameKey set(String text, int from, int to)
+	{
+		this.text = text;
+		this.offset = from;
+		this.length = to - from;
+		int h = 0;
+		for (int i = from; i < to; i++)
+			h = 31 * h + fold(text.charAt(i));
+		this.hash = h;
+		return this;
+	}
+
+	/**
+	 *     ,   String.regionMatches(true, ...)
+	 */
+	private static char fold(char c)
+	{
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (this == obj)
+			return true;
+		if (!(obj instanceof NameKey))
+			return false;
+		NameKey other = (NameKey)obj;
+		return hash == other.hash && length == other.length && text.regionMatches(true, offset, other.text, other.offset, length);
+	}
+
+	@Override
+	public String toString()
+	{
+		return text.substring(offset, offset + length);
+	}
+}
@@ -3,7 +3,11 @@ package ru.chervanev.vfs;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.HashMap;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  *  .
@@ -15,8 +19,14 @@ public class NetworkServer {
 	private VFSProperties properties;
 	// 
 	private ServerSocket server;
-	//  (concurrent    ,    )
-	private HashMap<String,ClientSession> clients = new HashMap<String,ClientSession>();
+	// .  (synchronized)  ,       
+	private ConcurrentHashMap<String,AbstractSession> clients = new ConcurrentHashMap<String,AbstractSession>();
+	// Thread.startVirtualThread,   virtual  JVM
+	private Method startVirtualThread;
+	//     
+	private ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+	//    ( :     )
+	private ScheduledExecutorService checkpoints;
 
 	/**
 	 *  
@@ -31,7 +41,51 @@ public class NetworkServer {
 		//    (     )
 	    properties = new VFSProperties();
 	    properties.load();
+	    HierarchyLock.setTimeout(properties.getLockTimeout());
+	    //     
+	    String journal = properties.getJournal();
+	    if (!journal.isEmpty())
+	    {
+	    	try {
+	    		MemoryVFS.getInstance().openJournal(journal);
+	    	} catch (IOException e) {
+	    		System.err.printf("Unable to open journal %s: %s", journal, e.getMessage());
+	    		System.exit(-1);
+	    	}
+	    	//   :    ,     
+	    	int interval = properties.getCheckpointInterval();
+	    	if (interval > 0)
+	    	{
+	    		checkpoints = Executors.newSingleThreadScheduledExecutor();
+	    		checkpoints.scheduleWithFixedDelay(new Runnable() {
+	    			public void run()
+	    			{
+	    				try {
+	    					MemoryVFS.getInstance().checkpoint();
+	    				} catch (IOException e) {
+	    					System.err.printf("Checkpoint failed: %s%n", e.getMessage());
+	    				}
+	    			}
+	    		}, interval, interval, TimeUnit.SECONDS);
+	    	}
+	    }
+	    //     
+	    MemoryVFS.getInstance().setLeaseListener(new ILeaseListener() {
+	    	public void leaseExpired(String userName, String fileName)
+	    	{
+	    		notifyLeaseExpired(userName, fileName);
+	    	}
+	    });
 
+	    if (VFSProperties.MODE_VIRTUAL.equals(properties.getMode()))
+	    {
+	    	//      Java 21,      
+	    	try {
+	    		startVirtualThread = Thread.class.getMethod("startVirtualThread", Runnable.class);
+	    	} catch (NoSuchMethodException e) {
+	    		System.err.println("Virtual threads are not supported by this JVM, platform threads are used");
+	    	}
+	    }
 	}
 	
 	/**
@@ -39,6 +93,21 @@ public class NetworkServer {
 	 */
 	public void Start()
 	{
+		if (VFSProperties.MODE_NIO.equals(properties.getMode()))
+		{
+			//  :    -   
+			SelectorServer selectorServer = new SelectorServer(this, properties);
+			try {
+				selectorServer.open();
+			} catch (Exception e) {
+				System.err.printf("Unable to start server at port %d", properties.getPort());
+				System.exit(-1);
+				return;
+			}
+			selectorServer.acceptClients();
+			return;
+		}
+		
 		try {
 			//  
 			server = new ServerSocket(properties.getPort());
@@ -61,7 +130,7 @@ public class NetworkServer {
 			try {
 				Socket client = server.accept();
 				//   -
-				new ClientSession(this, client).start();				
+				startSession(new ClientSession(this, client));
 				
 			} catch (IOException e) {
 				// nothing to do
@@ -69,28 +138,78 @@ public class NetworkServer {
 		}
 	}
 	
+	/**
+	 *   :    virtual,  
+	 */
+	public void startSession(Runnable session)
+	{
+		if (startVirtualThread != null)
+		{
+			try {
+				startVirtualThread.invoke(null, session);
+				return;
+			} catch (Exception e) {
+				System.err.print(e.getMessage());
+			}
+		}
+		new Thread(session).start();
+	}
+	
+	public VFSProperties getProperties()
+	{
+		return properties;
+	}
+	
+	/**
+	 *   
+	 * @param delay -   
+	 */
+	public void schedule(Runnable task, long delay)
+	{
+		scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+	}
+	
 	/**
 	 *       
 	 * @param client -   
 	 */
-	public synchronized void deleteClient(ClientSession client)
+	public void deleteClient(AbstractSession client)
 	{
-		if (client.getUserName() != null && clients.remove(client.getUserName()) != null)
-			notifySystem(client.getUserName() + " disconnected", client);
+		String userName = client.getUserName();
+		// ,    , 
+		if (client.executer != null)
+			client.executer.releaseLocks();
+		//       (  ):
+		//         
+		int released = 0;
+		if (userName != null && client.executer != null && clients.get(userName) == client)
+		{
+			try {
+				released = client.executer.releaseUserLocks();
+			} catch (FileSystemException e) {
+				System.err.println(String.format("Unable to release locks of %s: %s", userName, e.getMessage()));
+			}
+		}
+		if (userName != null && clients.remove(userName, client))
+		{
+			if (released != 0)
+				notifySystem(String.format("%s disconnected, %d lock(s) released", userName, released), client);
+			else
+				notifySystem(userName + " disconnected", client);
+		}
 	}
 	
 	/**
 	 *      .
 	 *        ()
-	 *  .
+	 *   ConcurrentHashMap.putIfAbsent.
 	 * @param client -   
 	 * @throws EAlreadyUserExists -      
 	 */
-	public synchronized void registerUser(ClientSession client) throws EAlreadyUserExists
+	public void registerUser(AbstractSession client) throws EAlreadyUserExists
 	{
-		if (!clients.containsKey(client.getUserName()))
+		if (clients.putIfAbsent(client.getUserName(), client) == null)
 		{
-			clients.put(client.getUserName(), client);
 			notifySystem(client.getUserName() + " connected", client);
 			client.notifySession(String.format("Currently connected %d user(s)", clients.size()));
 		}
@@ -101,15 +220,53 @@ public class NetworkServer {
 
 	/**
 	 *       (  ).
-	 *  .
+	 *     ,     .
+	 *     ,      .
+	 * @param message -  
+	 * @param client - ,     
+	 */
+	public void notifySystem(String message, AbstractSession client)
+	{
+		for (AbstractSession session : clients.values()) {
+			if (!session.equals(client))
+				session.post(message);
+		}
+	}
+
+	/**
+	 *     :  
+	 *  (  )  ,   
+	 */
+	private void notifyLeaseExpired(String userName, String fileName)
+	{
+		String message = String.format("Lock of %s by %s has expired", fileName, userName);
+		String[] paths = new String[] {fileName};
+		AbstractSession holder = clients.get(userName);
+		if (holder != null)
+		{
+			holder.post(message);
+			holder.notifySystem(message, paths);
+		}
+		else
+			notifySystem(message, paths, null);
+	}
+
+	/**
+	 *        .
+	 *    ,        .
 	 * @param message -  
+	 * @param paths -      
 	 * @param client - ,     
 	 */
-	public synchronized void notifySystem(String message, ClientSession client)
+	public void notifySystem(String message, String[] paths, AbstractSession client)
 	{
-		for (ClientSession session : clients.values()) {
+		//              
+		String[] keys = new String[paths.length];
+		for (int i = 0; i < paths.length; i++)
+			keys[i] = VFSExecuterAdapter.subscriptionKey(paths[i]);
+		for (AbstractSession session : clients.values()) {
 			if (!session.equals(client))
-				session.notifySession(message);
+				session.post(message, keys);
 		}
 	}
 
@@ -0,0 +1,392 @@
+package ru.chervanev.vfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ *     (SelectorServer).
+ *
+ *   -       (   )
+ *       .
+ *       ,   .
+ *      -:      .
+ *
+ *   on*  attach    - .
+ *      -      ;
+ *    ( ,   )   
+ *     .
+ */
+public class NioSession extends AbstractSession
+{
+	//        (  )
+	private static final String END_OF_STREAM = new String();
+	//      :      
+	private static final String CLOSED = new String();
+	//       (    )
+	private static final int MAX_LINE = 1 << 20;
+
+	private SocketChannel channel;
+	private SelectorServer.Reactor reactor;
+	private SelectionKey key;
+	private Charset charset = Charset.defaultCharset();
+	//    ( )
+	private ByteBuffer input;
+	private boolean reading = true;
+
+	//      
+	private boolean negotiated;
+	//   (    )      
+	private ConcurrentLinkedQueue<Object> commands = new ConcurrentLinkedQueue<Object>();
+	private AtomicBoolean scheduled = new AtomicBoolean(false);
+	//   -  
+	private boolean registered;
+
+	// ,   ,     
+	private ArrayDeque<ByteBuffer> writing = new ArrayDeque<ByteBuffer>();
+	//      -
+	private AtomicBoolean writeRequested = new AtomicBoolean(false);
+	//      
+	private volatile boolean closing;
+	//     
+	private volatile boolean aborted;
+	private volatile boolean closed;
+
+	private Runnable drainTask = new Runnable() {
+		public void run()
+		{
+			drain();
+		}
+	};
+
+	public NioSession(NetworkServer server, SocketChannel channel, SelectorServer.Reactor reactor) throws Exception
+	{
+		super(server);
+		this.channel = channel;
+		this.reactor = reactor;
+		createExecuter();
+	}
+
+	/**
+	 *      -
+	 */
+	void attach()
+	{
+		try {
+			key = channel.register(reactor.getSelector(), SelectionKey.OP_READ, this);
+		} catch (ClosedChannelException e) {
+			onClose();
+		}
+	}
+
+	/**
+	 *           
+	 */
+	void onReadable()
+	{
+		if (input == null)
+			input = reactor.getPool().acquire();
+		int count;
+		try {
+			count = channel.read(input);
+		} catch (IOException e) {
+			count = -1;
+		}
+		if (count == -1)
+		{
+			endOfStream();
+			return;
+		}
+
+		input.flip();
+		if (!negotiated && !negotiate())
+		{
+			//       
+			if (input != null)
+				input.compact();
+			return;
+		}
+		int required = isBinary() ? splitFrames() : splitLines();
+		if (required < 0)
+		{
+			//      
+			reading = false;
+			updateInterest(false);
+			commands.add(END_OF_STREAM);
+			schedule();
+			return;
+		}
+		input.compact();
+
+		if (input.position() == 0)
+		{
+			//    -    
+			reactor.getPool().release(input);
+			input = null;
+		}
+		else if (!input.hasRemaining() || required > input.capacity())
+		{
+			//     
+			int capacity = Math.max(input.capacity() * 2, required);
+			ByteBuffer grown = ByteBuffer.allocate(isBinary() ? capacity : Math.min(capacity, MAX_LINE));
+			input.flip();
+			grown.put(input);
+			reactor.getPool().release(input);
+			input = grown;
+		}
+		schedule();
+	}
+
+	/**
+	 *      :  BinaryProtocol.MAGIC   
+	 * @return false     
+	 */
+	private boolean negotiate()
+	{
+		if (!input.hasRemaining())
+			return false;
+		if (input.get(input.position()) != BinaryProtocol.MAGIC[0])
+		{
+			negotiated = true;
+			return true;
+		}
+		if (input.remaining() < BinaryProtocol.MAGIC.length)
+			return false;
+		for (int i = 1; i < BinaryProtocol.MAGIC.length; i++)
+			if (input.get(input.position() + i) != BinaryProtocol.MAGIC[i])
+			{
+				//  :  
+				input.position(input.limit());
+				endOfStream();
+				return false;
+			}
+		input.position(input.position() + BinaryProtocol.MAGIC.length);
+		setBinary();
+		negotiated = true;
+		return true;
+	}
+
+	/**
+	 *      
+	 * @return 0  -1,     MAX_LINE
+	 */
+	private int splitLines()
+	{
+		byte[] data = input.array();
+		int offset = input.arrayOffset();
+		int start = input.position();
+		for (int i = start; i < input.limit(); i++)
+		{
+			if (data[offset + i] == '\n')
+			{
+				int end = i;
+				if (end > start && data[offset + end - 1] == '\r')
+					end--;
+				commands.add(new String(data, offset + start, end - start, charset));
+				start = i + 1;
+			}
+		}
+		input.position(start);
+		return input.remaining() >= MAX_LINE ? -1 : 0;
+	}
+
+	/**
+	 *       
+	 * @return  ,    ,  -1   
+	 */
+	private int splitFrames()
+	{
+		while (input.remaining() >= 4)
+		{
+			int length = input.getInt(input.position());
+			if (length < 0 || length > BinaryProtocol.MAX_FRAME)
+				return -1;
+			if (input.remaining() - 4 < length)
+				return length + 4;
+			byte[] frame = new byte[length];
+			input.position(input.position() + 4);
+			input.get(frame);
+			commands.add(frame);
+		}
+		return 0;
+	}
+
+	/**
+	 *   :    ,   
+	 */
+	private void endOfStream()
+	{
+		reading = false;
+		updateInterest(false);
+		if (input != null)
+		{
+			reactor.getPool().release(input);
+			input = null;
+		}
+		commands.add(END_OF_STREAM);
+		schedule();
+	}
+
+	/**
+	 *    (     )
+	 */
+	void onWritable()
+	{
+		if (closed)
+			return;
+		if (aborted)
+		{
+			onClose();
+			return;
+		}
+		// ,    ,    
+		writeRequested.set(false);
+		ByteBuffer[] batch = reactor.getBatch();
+		try {
+			while (true)
+			{
+				ByteBuffer message;
+				while (writing.size() < batch.length && (message = nextMessage()) != null)
+					writing.add(message);
+				if (writing.isEmpty())
+					break;
+				int count = 0;
+				for (ByteBuffer buffer : writing)
+					batch[count++] = buffer;
+				channel.write(batch, 0, count);
+				Arrays.fill(batch, 0, count, null);
+				while (!writing.isEmpty() && !writing.peek().hasRemaining())
+					outbound.sent(writing.poll());
+				if (!writing.isEmpty())
+				{
+					//   ,     
+					updateInterest(true);
+					return;
+				}
+			}
+		} catch (IOException e) {
+			onClose();
+			return;
+		}
+		updateInterest(false);
+		if (closing)
+			onClose();
+	}
+
+	/**
+	 *  ;       
+	 */
+	void onClose()
+	{
+		if (closed)
+			return;
+		closed = true;
+		if (key != null)
+			key.cancel();
+		try {
+			channel.close();
+		} catch (IOException e) {}
+		if (input != null)
+		{
+			reactor.getPool().release(input);
+			input = null;
+		}
+		writing.clear();
+		outbound.close();
+		//     ,    
+		commands.add(CLOSED);
+		schedule();
+	}
+
+	private void updateInterest(boolean write)
+	{
+		if (key != null && key.isValid())
+			key.interestOps((reading ? SelectionKey.OP_READ : 0) | (write ? SelectionKey.OP_WRITE : 0));
+	}
+
+	/**
+	 *     ,     
+	 */
+	private void schedule()
+	{
+		if (!commands.isEmpty() && scheduled.compareAndSet(false, true))
+			reactor.getWorkers().execute(drainTask);
+	}
+
+	/**
+	 *      ( )
+	 */
+	private void drain()
+	{
+		do
+		{
+			Object command;
+			while ((command = commands.poll()) != null)
+			{
+				if (command == CLOSED)
+					server.deleteClient(this);
+				else if (command == END_OF_STREAM)
+					requestClose();
+				else if (closing || closed)
+					continue;
+				else if (command instanceof byte[])
+				{
+					//     
+					if (!executeFrame((byte[])command) || getUserName() == null)
+						requestClose();
+				}
+				else
+					process((String)command);
+			}
+			scheduled.set(false);
+			//      ,    
+		} while (!commands.isEmpty() && scheduled.compareAndSet(false, true));
+	}
+
+	private void process(String line)
+	{
+		if (registered)
+			executeCommand(line);
+		else if (register(line))
+			registered = true;
+		else
+			requestClose();
+	}
+
+	/**
+	 *      
+	 */
+	private void requestClose()
+	{
+		closing = true;
+		writeRequested.set(true);
+		reactor.requestWrite(this);
+	}
+
+	/**
+	 *   -   
+	 */
+	@Override
+	protected void flush()
+	{
+		if (!closed && writeRequested.compareAndSet(false, true))
+			reactor.requestWrite(this);
+	}
+
+	/**
+	 *    
+	 */
+	@Override
+	protected void disconnect()
+	{
+		aborted = true;
+		reactor.requestWrite(this);
+	}
+}
@@ -0,0 +1,24 @@
+package ru.chervanev.vfs;
+
+/**
+ *     (    )
+ *
+ *       ,    (VersionTree),
+ *       .       ,
+ *        .    
+ *   (SharedNode).
+ */
+public abstract class NodeVersion extends SharedNode
+{
+	private final String name;
+
+	protected NodeVersion(String name)
+	{
+		this.name = name;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+}
@@ -0,0 +1,221 @@
+package ru.chervanev.vfs;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *     ( ).
+ *
+ *        (add).
+ *        (offer):  
+ *    ,      .
+ *       (   ):  
+ *  ,    .     .
+ *      :   ,  
+ *    (sent),    .
+ */
+public class OutboundQueue
+{
+	/**
+	 *   
+	 */
+	public enum Policy
+	{
+		//   
+		DROP,
+		//        
+		COALESCE,
+		//    
+		DISCONNECT
+	}
+
+	//       (  )
+	static final ByteBuffer SKIPPED = ByteBuffer.allocate(0);
+
+	/**
+	 *  
+	 */
+	private static class Composite
+	{
+		final ByteBuffer[] parts;
+		//   (null - )
+		final Runnable done;
+
+		Composite(ByteBuffer[] parts, Runnable done)
+		{
+			this.parts = parts;
+			this.done = done;
+		}
+	}
+
+	// : ByteBuffer  Composite
+	private ConcurrentLinkedQueue<Object> messages = new ConcurrentLinkedQueue<Object>();
+	//    ,    
+	private ByteBuffer[] parts;
+	private int nextPart;
+	//         ( )
+	private ArrayDeque<Composite> pending = new ArrayDeque<Composite>();
+	private volatile boolean closed;
+	private AtomicInteger size = new AtomicInteger();
+	private int limit;
+	private Policy policy;
+	//         
+	private AtomicInteger skipped = new AtomicInteger();
+	private AtomicBoolean marked = new AtomicBoolean(false);
+
+	public OutboundQueue(int limit, Policy policy)
+	{
+		this.limit = limit;
+		this.policy = policy;
+	}
+
+	/**
+	 *     
+	 */
+	public int getLimit()
+	{
+		return limit;
+	}
+
+	public Policy getPolicy()
+	{
+		return policy;
+	}
+
+	/**
+	 *      
+	 */
+	public void add(ByteBuffer message)
+	{
+		size.incrementAndGet();
+		messages.add(message);
+	}
+
+	/**
+	 *         
+	 */
+	public void add(ByteBuffer[] message)
+	{
+		add(message, null);
+	}
+
+	/**
+	 *        .
+	 *     ,      .
+	 */
+	public void add(ByteBuffer[] message, Runnable done)
+	{
+		Composite composite = new Composite(message, done);
+		size.incrementAndGet();
+		messages.add(composite);
+		//      :   ,    
+		if (closed && done != null && messages.remove(composite))
+			done.run();
+	}
+
+	/**
+	 *       
+	 * @return false    DISCONNECT    
+	 */
+	public boolean offer(ByteBuffer message)
+	{
+		while (true)
+		{
+			int current = size.get();
+			if (current >= limit)
+				break;
+			if (size.compareAndSet(current, current + 1))
+			{
+				messages.add(message);
+				return true;
+			}
+		}
+		//  
+		switch (policy)
+		{
+		case DISCONNECT:
+			return false;
+		case COALESCE:
+			skipped.incrementAndGet();
+			if (marked.compareAndSet(false, true))
+				add(SKIPPED);
+			return true;
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 *   :     .    SKIPPED.
+	 */
+	public ByteBuffer poll()
+	{
+		if (parts != null)
+			return nextPart();
+		Object message = messages.poll();
+		if (message == null)
+			return null;
+		size.decrementAndGet();
+		if (message instanceof Composite)
+		{
+			Composite composite = (Composite)message;
+			if (composite.done != null)
+				pending.add(composite);
+			parts = composite.parts;
+			nextPart = 0;
+			return nextPart();
+		}
+		if (message == SKIPPED)
+			marked.set(false);
+		return (ByteBuffer)message;
+	}
+
+	private ByteBuffer nextPart()
+	{
+		ByteBuffer part = parts[nextPart++];
+		if (nextPart == parts.length)
+			parts = null;
+		return part;
+	}
+
+	/**
+	 *       
+	 */
+	public int takeSkipped()
+	{
+		return skipped.getAndSet(0);
+	}
+
+	public boolean isEmpty()
+	{
+		return parts == null && messages.isEmpty();
+	}
+
+	/**
+	 *    :    
+	 */
+	public void sent(ByteBuffer buffer)
+	{
+		Composite composite = pending.peek();
+		if (composite != null && composite.parts[composite.parts.length - 1] == buffer)
+		{
+			pending.poll();
+			composite.done.run();
+		}
+	}
+
+	/**
+	 *   :  ,   
+	 */
+	public void close()
+	{
+		closed = true;
+		while (poll() != null);
+		Composite composite;
+		while ((composite = pending.poll()) != null)
+			composite.done.run();
+	}
+}
@@ -0,0 +1,140 @@
+package ru.chervanev.vfs;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *     :    ,     .
+ *
+ *       (   ). 
+ *      :   ,    
+ *     ,       .  
+ *     .        .
+ *       volatile- .
+ *
+ *      BLOCK:      
+ *  ,    O( / BLOCK + BLOCK)    .
+ */
+public class PathLabel
+{
+	private static final AtomicLong generations = new AtomicLong();
+	private static final int SHIFT = 6;
+	private static final int BLOCK = 1 << SHIFT;
+	private static final Directory[][] NO_ANCESTORS = new Directory[0][];
+
+	final long generation;
+	final String fullName;
+	//   ,      (null -   )
+	private final String base;
+	//    i - ancestors[i >> SHIFT][i & (BLOCK - 1)] (  )
+	private final Directory[][] ancestors;
+	private final int depth;
+
+	/**
+	 *      
+	 */
+	PathLabel(long generation, String fullName)
+	{
+		this(generation, fullName, NO_ANCESTORS, 0, null);
+	}
+
+	private PathLabel(long generation, String fullName, Directory[][] ancestors, int depth, String base)
+	{
+		this.generation = generation;
+		this.fullName = fullName;
+		this.ancestors = ancestors;
+		this.depth = depth;
+		this.base = base;
+	}
+
+	/**
+	 *    (this -   parent)
+	 */
+	PathLabel child(long generation, Directory parent, String childName)
+	{
+		int block = depth >> SHIFT;
+		int offset = depth & (BLOCK - 1);
+		Directory[][] blocks = Arrays.copyOf(ancestors, block + 1);
+		//    ,   
+		Directory[] last = offset == 0 ? new Directory[1] : Arrays.copyOf(ancestors[block], offset + 1);
+		last[offset] = parent;
+		blocks[block] = last;
+		String name = parent.getName().isEmpty() ? childName : fullName + "\\" + childName;
+		return new PathLabel(generation, name, blocks, depth + 1, fullName);
+	}
+
+	/**
+	 *    (this -  )
+	 */
+	PathLabel file(String fileName)
+	{
+		return new PathLabel(generation, fullName + "\\" + fileName, NO_ANCESTORS, 0, fullName);
+	}
+
+	/**
+	 *      generation (  )
+	 */
+	PathLabel rebase(long generation)
+	{
+		return new PathLabel(generation, fullName, ancestors, depth, base);
+	}
+
+	/**
+	 *   ,     parent   parentDir
+	 * (parent == null -   )
+	 */
+	boolean isChildOf(PathLabel parent, Directory parentDir)
+	{
+		if (parent == null)
+			return depth == 0 && base == null;
+		return depth == parent.depth + 1 && getAncestor(depth - 1) == parentDir && base == parent.fullName;
+	}
+
+	/**
+	 *   ,     parent  
+	 */
+	boolean isFileOf(PathLabel parent)
+	{
+		return base == parent.fullName;
+	}
+
+	/**
+	 *   ( )
+	 */
+	int getDepth()
+	{
+		return depth;
+	}
+
+	/**
+	 *    level (level < getDepth())
+	 */
+	Directory getAncestor(int level)
+	{
+		return ancestors[level >> SHIFT][level & (BLOCK - 1)];
+	}
+
+	/**
+	 *   
+	 */
+	static long generation()
+	{
+		return generations.get();
+	}
+
+	/**
+	 *       (   )
+	 */
+	static boolean isValid(PathLabel label)
+	{
+		return label != null && label.generation == generations.get();
+	}
+
+	/**
+	 *     :       
+	 */
+	static void invalidate()
+	{
+		generations.incrementAndGet();
+	}
+}
@@ -0,0 +1,165 @@
+package ru.chervanev.vfs;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ *     ( nio).
+ *
+ *    - (Reactor)      Selector,
+ *           .
+ *      (ISession)    "  ".
+ */
+public class SelectorServer
+{
+	//   ,   
+	private static final int POOLED_BUFFERS = 1024;
+	//       
+	private static final int WRITE_BATCH = 16;
+
+	private NetworkServer server;
+	private VFSProperties properties;
+	private ServerSocketChannel channel;
+	private Reactor[] reactors;
+	private ExecutorService workers;
+	private BufferPool pool;
+
+	public SelectorServer(NetworkServer server, VFSProperties properties)
+	{
+		this.server = server;
+		this.properties = properties;
+	}
+
+	/**
+	 *       -
+	 */
+	public void open() throws IOException
+	{
+		channel = ServerSocketChannel.open();
+		channel.socket().bind(new InetSocketAddress(properties.getPort()));
+		pool = new BufferPool(properties.getBufferSize(), POOLED_BUFFERS);
+		workers = Executors.newFixedThreadPool(properties.getWorkerThreads());
+		reactors = new Reactor[Math.max(1, properties.getIoThreads())];
+		for (int i = 0; i < reactors.length; i++)
+		{
+			reactors[i] = new Reactor(i);
+			reactors[i].start();
+		}
+	}
+
+	/**
+	 *    .     -  .
+	 */
+	public void acceptClients()
+	{
+		int next = 0;
+		while (true)
+		{
+			SocketChannel client = null;
+			try {
+				client = channel.accept();
+				client.configureBlocking(false);
+				Reactor reactor = reactors[next];
+				next = (next + 1) % reactors.length;
+				reactor.register(new NioSession(server, client, reactor));
+			} catch (Exception e) {
+				//     
+				if (client != null)
+					try {
+						client.close();
+					} catch (IOException x) {}
+			}
+		}
+	}
+
+	/**
+	 *  -   .
+	 *            .
+	 */
+	class Reactor extends Thread
+	{
+		private Selector selector;
+		private ConcurrentLinkedQueue<NioSession> registrations = new ConcurrentLinkedQueue<NioSession>();
+		private ConcurrentLinkedQueue<NioSession> writes = new ConcurrentLinkedQueue<NioSession>();
+		//     ,    
+		private ByteBuffer[] batch = new ByteBuffer[WRITE_BATCH];
+
+		public Reactor(int index) throws IOException
+		{
+			super("vfs-io-" + index);
+			selector = Selector.open();
+		}
+
+		public void register(NioSession session)
+		{
+			registrations.add(session);
+			selector.wakeup();
+		}
+
+		public void requestWrite(NioSession session)
+		{
+			writes.add(session);
+			selector.wakeup();
+		}
+
+		public Selector getSelector()
+		{
+			return selector;
+		}
+
+		public BufferPool getPool()
+		{
+			return pool;
+		}
+
+		public ExecutorService getWorkers()
+		{
+			return workers;
+		}
+
+		public ByteBuffer[] getBatch()
+		{
+			return batch;
+		}
+
+		public void run()
+		{
+			while (true)
+			{
+				try {
+					selector.select();
+				} catch (IOException e) {
+					System.err.print(e.getMessage());
+					return;
+				}
+
+				NioSession session;
+				while ((session = registrations.poll()) != null)
+					session.attach();
+				while ((session = writes.poll()) != null)
+					session.onWritable();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext())
+				{
+					SelectionKey key = keys.next();
+					keys.remove();
+					session = (NioSession)key.attachment();
+					if (key.isValid() && key.isReadable())
+						session.onReadable();
+					if (key.isValid() && key.isWritable())
+						session.onWritable();
+				}
+			}
+		}
+	}
+}
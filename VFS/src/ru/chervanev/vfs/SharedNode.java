@@ -0,0 +1,89 @@
+package ru.chervanev.vfs;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ *    ,   ,   .
+ *
+ *    -     :    (MemoryVFS),
+ *     (Directory.origin),   .
+ *             :  ,
+ *    ,   .       
+ *  (retain     ),   -  
+ *  (release    ,   ).    -
+ *      ,     ,   .
+ *    ;   .
+ */
+abstract class SharedNode
+{
+	private static final AtomicIntegerFieldUpdater<SharedNode> REFS =
+			AtomicIntegerFieldUpdater.newUpdater(SharedNode.class, "refs");
+
+	private volatile int refs;
+
+	/**
+	 *   (1 -   )
+	 */
+	int refs()
+	{
+		return refs;
+	}
+
+	/**
+	 *    ;       
+	 */
+	void retain()
+	{
+		ArrayList<SharedNode> pending = new ArrayList<SharedNode>();
+		pending.add(this);
+		while (!pending.isEmpty())
+		{
+			SharedNode node = pending.remove(pending.size() - 1);
+			if (REFS.incrementAndGet(node) == 1)
+			{
+				node.acquired();
+				node.parts(pending);
+			}
+		}
+	}
+
+	/**
+	 *    ;      
+	 */
+	void release()
+	{
+		ArrayList<SharedNode> pending = new ArrayList<SharedNode>();
+		pending.add(this);
+		while (!pending.isEmpty())
+		{
+			SharedNode node = pending.remove(pending.size() - 1);
+			if (REFS.decrementAndGet(node) == 0)
+			{
+				node.released();
+				node.parts(pending);
+			}
+		}
+	}
+
+	/**
+	 * ,    (  parts)
+	 */
+	protected void parts(ArrayList<SharedNode> parts)
+	{
+	}
+
+	/**
+	 *     ( ,   )
+	 */
+	protected void acquired()
+	{
+	}
+
+	/**
+	 *     ( ,   )
+	 */
+	protected void released()
+	{
+	}
+}
@@ -0,0 +1,27 @@
+package ru.chervanev.vfs;
+
+/**
+ *    :      
+ *  ,  
+ */
+public class Snapshot
+{
+	private final DirectoryVersion version;
+	private final LockVersion locks;
+
+	Snapshot(DirectoryVersion version, LockVersion locks)
+	{
+		this.version = version;
+		this.locks = locks;
+	}
+
+	public DirectoryVersion getVersion()
+	{
+		return version;
+	}
+
+	public LockVersion getLocks()
+	{
+		return locks;
+	}
+}
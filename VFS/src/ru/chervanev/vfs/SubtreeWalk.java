@@ -0,0 +1,165 @@
+package ru.chervanev.vfs;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ *     (fork/join).
+ *
+ *      O(1)   .   THRESHOLD 
+ *       (TreeWalker).    
+ *      ,    -   :
+ *       ,     
+ *  log2( / THRESHOLD)    .
+ *
+ *      -  (enter)   (leave),   
+ *    :        .
+ *      ,       .
+ */
+public class SubtreeWalk extends RecursiveAction
+{
+	private static final long serialVersionUID = 1L;
+	//   (  ),       
+	static final int THRESHOLD = 4096;
+	private static final ForkJoinPool pool = new ForkJoinPool();
+
+	/**
+	 *   
+	 */
+	public static abstract class Visitor
+	{
+		/**
+		 *   
+		 * @param path -   (null,      )
+		 * @return false -    , leave  
+		 */
+		protected abstract boolean enter(Directory dir, String path);
+
+		/**
+		 *         
+		 * (      )
+		 */
+		protected void leave(Directory dir)
+		{
+		}
+
+		/**
+		 *    
+		 */
+		protected Collection<Directory> children(Directory dir)
+		{
+			return dir.dirCollection();
+		}
+	}
+
+	private final Visitor visitor;
+	private final Directory root;
+	private final String rootPath;
+
+	private SubtreeWalk(Visitor visitor, Directory root, String rootPath)
+	{
+		this.visitor = visitor;
+		this.root = root;
+		this.rootPath = rootPath;
+	}
+
+	/**
+	 *   root
+	 * @param rootPath -  root (null -   )
+	 */
+	public static void run(Directory root, String rootPath, Visitor visitor)
+	{
+		SubtreeWalk walk = new SubtreeWalk(visitor, root, rootPath);
+		//      ,   
+		if (size(root) < THRESHOLD)
+			walk.compute();
+		else
+			pool.invoke(walk);
+	}
+
+	/**
+	 *    (O(1)   ).
+	 *         .
+	 */
+	static int size(Directory dir)
+	{
+		if (dir.isShared())
+			return 0;
+		DirectoryVersion version = dir.getVersion();
+		return version.getTotalDirs() + version.getTotalFiles();
+	}
+
+	@Override
+	protected void compute()
+	{
+		final List<SubtreeWalk> branches = new ArrayList<SubtreeWalk>();
+		//     
+		final ArrayDeque<String> paths = new ArrayDeque<String>();
+		new TreeWalker<Directory>() {
+			@Override
+			protected Iterator<Directory> children(Directory dir)
+			{
+				Collection<Directory> children = visitor.children(dir);
+				if (size(dir) < THRESHOLD)
+					return children.iterator();
+				Directory largest = null;
+				int largestSize = THRESHOLD - 1;
+				for (Directory child : children)
+				{
+					int childSize = size(child);
+					if (childSize > largestSize)
+					{
+						largest = child;
+						largestSize = childSize;
+					}
+				}
+				List<Directory> own = new ArrayList<Directory>(children.size());
+				for (Directory child : children)
+				{
+					if (child != largest && size(child) >= THRESHOLD)
+					{
+						SubtreeWalk branch = new SubtreeWalk(visitor, child, childPath(child));
+						branch.fork();
+						branches.add(branch);
+					}
+					else
+						own.add(child);
+				}
+				return own.iterator();
+			}
+
+			@Override
+			protected boolean enter(Directory dir)
+			{
+				String path = paths.isEmpty() ? rootPath : childPath(dir);
+				if (!visitor.enter(dir, path))
+					return false;
+				// ArrayDeque   null:      
+				paths.push(path == null ? "" : path);
+				return true;
+			}
+
+			@Override
+			protected void leave(Directory dir)
+			{
+				paths.pop();
+				visitor.leave(dir);
+			}
+
+			/**
+			 *      
+			 */
+			private String childPath(Directory child)
+			{
+				return rootPath == null ? null : paths.peek() + "\\" + child.getName();
+			}
+		}.walk(root);
+		for (SubtreeWalk branch : branches)
+			branch.join();
+	}
+}
@@ -0,0 +1,231 @@
+package ru.chervanev.vfs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *   .
+ *
+ *              
+ *   :    - O(1),     .
+ *  ,    ,    .
+ *        ,   .
+ *    (daemon)     .
+ */
+public class TimerWheel
+{
+	/**
+	 * .     (   ).
+	 */
+	public static class Timeout
+	{
+		//   (System.nanoTime)
+		private volatile long deadline;
+		private long rounds;
+		private Timeout previous;
+		private Timeout next;
+		//  , -1 -   
+		private int slot = -1;
+
+		public long getDeadline()
+		{
+			return deadline;
+		}
+
+		/**
+		 *   
+		 */
+		public boolean isExpired()
+		{
+			return System.nanoTime() - deadline >= 0;
+		}
+	}
+
+	/**
+	 *   
+	 */
+	public interface Handler
+	{
+		void expired(List<Timeout> timeouts);
+	}
+
+	private final long tick;
+	private final int mask;
+	//   
+	private final Timeout[] slots;
+	private final Handler handler;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final long start = System.nanoTime();
+	//    
+	private volatile long ticks;
+	private Thread worker;
+
+	/**
+	 * @param tickMillis -  , 
+	 * @param size -   ( )
+	 */
+	public TimerWheel(long tickMillis, int size, Handler handler)
+	{
+		if (Integer.bitCount(size) != 1)
+			throw new IllegalArgumentException("Wheel size must be a power of two");
+		this.tick = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		this.mask = size - 1;
+		this.slots = new Timeout[size];
+		this.handler = handler;
+	}
+
+	/**
+	 *  ( ) 
+	 * @param delayMillis -  , 
+	 */
+	public void schedule(Timeout timeout, long delayMillis)
+	{
+		lock.lock();
+		try {
+			if (timeout.slot != -1)
+				unlink(timeout);
+			timeout.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+			place(timeout, timeout.deadline);
+			if (worker == null)
+			{
+				worker = new Thread(new Runnable() {
+					public void run()
+					{
+						work();
+					}
+				}, "TimerWheel");
+				worker.setDaemon(true);
+				worker.start();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 *        (,    ).
+	 * @return false      (schedule):   
+	 */
+	public boolean retry(Timeout timeout, long delayMillis)
+	{
+		lock.lock();
+		try {
+			if (timeout.slot != -1)
+				return false;
+			place(timeout, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 *  
+	 * @return false     (   )
+	 */
+	public boolean cancel(Timeout timeout)
+	{
+		lock.lock();
+		try {
+			if (timeout.slot == -1)
+				return false;
+			unlink(timeout);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 *     ,      time (System.nanoTime)
+	 */
+	private void place(Timeout timeout, long time)
+	{
+		long due = Math.max((time - start + tick - 1) / tick - 1, ticks);
+		timeout.rounds = (due - ticks) / slots.length;
+		link(timeout, (int)(due & mask));
+	}
+
+	private void link(Timeout timeout, int slot)
+	{
+		timeout.slot = slot;
+		timeout.previous = null;
+		timeout.next = slots[slot];
+		if (timeout.next != null)
+			timeout.next.previous = timeout;
+		slots[slot] = timeout;
+	}
+
+	private void unlink(Timeout timeout)
+	{
+		if (timeout.previous != null)
+			timeout.previous.next = timeout.next;
+		else
+			slots[timeout.slot] = timeout.next;
+		if (timeout.next != null)
+			timeout.next.previous = timeout.previous;
+		timeout.previous = null;
+		timeout.next = null;
+		timeout.slot = -1;
+	}
+
+	/**
+	 *   :       
+	 */
+	private void work()
+	{
+		while (true)
+		{
+			//      ;     
+			long wait;
+			while ((wait = start + (ticks + 1) * tick - System.nanoTime()) > 0)
+			{
+				try {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+			List<Timeout> expired = advance();
+			if (!expired.isEmpty())
+			{
+				try {
+					handler.expired(expired);
+				} catch (RuntimeException e) {
+					e.printStackTrace(System.err);
+				}
+			}
+		}
+	}
+
+	/**
+	 *    
+	 * @return  
+	 */
+	private List<Timeout> advance()
+	{
+		List<Timeout> expired = new ArrayList<Timeout>();
+		lock.lock();
+		try {
+			Timeout timeout = slots[(int)(ticks & mask)];
+			while (timeout != null)
+			{
+				Timeout next = timeout.next;
+				if (timeout.rounds == 0)
+				{
+					unlink(timeout);
+					expired.add(timeout);
+				}
+				else
+					timeout.rounds--;
+				timeout = next;
+			}
+			ticks++;
+		} finally {
+			lock.unlock();
+		}
+		return expired;
+	}
+}
@@ -0,0 +1,83 @@
+package ru.chervanev.vfs;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ *      ( ):     .
+ *
+ *  enter      ( ), leave -    
+ *    ( ).     stop.
+ */
+public abstract class TreeWalker<T>
+{
+	private boolean stopped;
+
+	/**
+	 *   (   ,    )
+	 */
+	protected abstract Iterator<? extends T> children(T node);
+
+	/**
+	 *   
+	 * @return false -    , leave    
+	 */
+	protected boolean enter(T node)
+	{
+		return true;
+	}
+
+	/**
+	 *       
+	 */
+	protected void leave(T node)
+	{
+	}
+
+	/**
+	 *  :    enter  leave  
+	 */
+	protected void stop()
+	{
+		stopped = true;
+	}
+
+	/**
+	 *    root
+	 * @return false     stop
+	 */
+	public boolean walk(T root)
+	{
+		stopped = false;
+		ArrayDeque<T> nodes = new ArrayDeque<T>();
+		ArrayDeque<Iterator<? extends T>> iterators = new ArrayDeque<Iterator<? extends T>>();
+		if (!enter(root) || stopped)
+			return !stopped;
+		nodes.push(root);
+		iterators.push(children(root));
+		while (!nodes.isEmpty())
+		{
+			Iterator<? extends T> iterator = iterators.peek();
+			if (iterator.hasNext())
+			{
+				T child = iterator.next();
+				boolean entered = enter(child);
+				if (stopped)
+					return false;
+				if (entered)
+				{
+					nodes.push(child);
+					iterators.push(children(child));
+				}
+			}
+			else
+			{
+				iterators.pop();
+				leave(nodes.pop());
+				if (stopped)
+					return false;
+			}
+		}
+		return true;
+	}
+}
@@ -1,7 +1,14 @@
 package ru.chervanev.vfs;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  *  Executer        IFileSystem
@@ -12,9 +19,19 @@ import java.util.Collections;
  */
 public class VFSExecuterAdapter extends Executer
 {
+	//      - UTF-8
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	//   ,    read
+	private static final int READ_LIMIT = 1 << 20;
 	private ISession session;
 	private IFileSystem fileSystem;
 	private Directory currentDir;
+	//  ,   
+	private ArrayList<String> touched = new ArrayList<String>();
+	//   :        "\"
+	private CopyOnWriteArrayList<String> subscriptions = new CopyOnWriteArrayList<String>();
+	// ,   test (  test ul   )
+	private ConcurrentLinkedQueue<HierarchyLock> locks = new ConcurrentLinkedQueue<HierarchyLock>();
 	
 	public VFSExecuterAdapter(ISession session) throws Exception
 	{
@@ -25,7 +42,7 @@ public class VFSExecuterAdapter extends Executer
 			//       
 			fileSystem = (IFileSystem)Class.forName("ru.chervanev.vfs.MemoryVFS").getMethod("getInstance", new Class[0]).invoke(null, new Object[0]);
 			//    
-			currentDir = fileSystem.listFileSystem().findDir("C:");
+			currentDir = fileSystem.findDir("C:");
 		} catch (Exception e) {
 			e.printStackTrace(System.err);
 			throw new Exception("Unable to instantiate File System ");			
@@ -41,8 +58,66 @@ public class VFSExecuterAdapter extends Executer
 	public void execute(String command) throws Exception
 	{
 		checkDeletion();
+		touched.clear();
 		super.execute(command);
-		session.notifySystem(String.format("User %s performs command: %s", session.getUserName(), command));
+		performed(command);
+	}
+	
+	/**
+	 *   ,     ( )
+	 */
+	public void execute(String name, String[] args) throws Exception
+	{
+		checkDeletion();
+		touched.clear();
+		super.execute(name, args);
+		StringBuilder command = new StringBuilder(name);
+		for (String arg : args)
+			command.append(' ').append(arg);
+		performed(command.toString());
+	}
+
+	/**
+	 *          
+	 */
+	private void performed(String command)
+	{
+		session.notifySystem(String.format("User %s performs command: %s", session.getUserName(), command), touched.toArray(new String[touched.size()]));
+	}
+
+	/**
+	 *        ( ).
+	 *    .
+	 */
+	public Content.Slices download(String fileName, long offset, long length) throws FileSystemException
+	{
+		checkDeletion();
+		touched.clear();
+		Content.Slices data = fileSystem.slices(formatName(fileName), offset, length);
+		performed(String.format("read %s %d %d", fileName, offset, length));
+		return data;
+	}
+
+	/**
+	 *  ,   ,   offset ( )
+	 */
+	public void upload(String fileName, long offset, ByteBuffer data) throws FileSystemException
+	{
+		checkDeletion();
+		touched.clear();
+		fileSystem.write(formatName(fileName), session.getUserName(), offset, data);
+		performed(String.format("write %s %d", fileName, offset));
+	}
+
+	/**
+	 *  ,   ,    ( )
+	 */
+	public void upload(String fileName, ByteBuffer data) throws FileSystemException
+	{
+		checkDeletion();
+		touched.clear();
+		fileSystem.append(formatName(fileName), session.getUserName(), data);
+		performed(String.format("append %s", fileName));
 	}
 	
 	/**
@@ -52,7 +127,7 @@ public class VFSExecuterAdapter extends Executer
 		if (currentDir.isDeleted())
 		{
 			try {
-				currentDir = fileSystem.listFileSystem().findDir("c:");
+				currentDir = fileSystem.findDir("c:");
 				session.notifySession("Current directory was deleted by another user. Current directory is c:\\");				
 			} catch (FileSystemException e) {
 				// nothing to do
@@ -69,7 +144,7 @@ public class VFSExecuterAdapter extends Executer
 	public void rd(String dirName) throws FileSystemException 
 	{
 		String fullDirName = formatName(dirName);
-		if (currentDir.getFullName().toLowerCase().equals(fullDirName.toLowerCase()))
+		if (fileSystem.findDir(fullDirName) == currentDir)
 			throw new FileSystemException(String.format("Can not delete current directory: %s", dirName));
 
 		fileSystem.rd(fullDirName);
@@ -83,9 +158,10 @@ public class VFSExecuterAdapter extends Executer
 	public void delTree(String dirName) throws FileSystemException 
 	{
 		String fullDirName = formatName(dirName);
-		if (currentDir.getFullName().toLowerCase().equals(fullDirName.toLowerCase()))
+		Directory dir = fileSystem.findDir(fullDirName);
+		if (dir == currentDir)
 			throw new FileSystemException(String.format("Can not delete current directory: %s", dirName));
-		if (currentDir.getFullName().toLowerCase().startsWith(fullDirName.toLowerCase()))
+		if (currentDir.isChild(dir))
 			throw new FileSystemException(String.format("Cannot delete parent of current directory: %s", dirName));
 		
 		fileSystem.delTree(fullDirName);
@@ -99,7 +175,7 @@ public class VFSExecuterAdapter extends Executer
 
 	public void cd(String dirName) throws FileSystemException {
 		
-		currentDir = fileSystem.listFileSystem().findDir(formatName(dirName));		
+		currentDir = fileSystem.findDir(formatName(dirName));		
 	}
 	
 	public void mf(String fileName) throws FileSystemException 
@@ -122,6 +198,39 @@ public class VFSExecuterAdapter extends Executer
 		fileSystem.unlock(formatName(fileName), session.getUserName());
 	}
 	
+	/**
+	 *      ttl 
+	 */
+	public void lock(String fileName, String ttl) throws FileSystemException 
+	{
+		fileSystem.lock(formatName(fileName), session.getUserName(), leaseTime(ttl));
+	}
+	
+	/**
+	 *     ttl 
+	 */
+	public void renew(String fileName, String ttl) throws FileSystemException 
+	{
+		fileSystem.renew(formatName(fileName), session.getUserName(), leaseTime(ttl));
+	}
+	
+	/**
+	 *     
+	 * @return   
+	 */
+	private static long leaseTime(String ttl) throws FileSystemException
+	{
+		try {
+			long seconds = Long.parseLong(ttl);
+			//   
+			if (seconds > 0 && seconds <= 86400)
+				return seconds * 1000;
+		} catch (NumberFormatException e) {
+			//  
+		}
+		throw new FileSystemException(String.format("Invalid lease time %s", ttl));
+	}
+	
 	public void copy(String source, String fileName) throws FileSystemException 
 	{
 		fileSystem.copy(formatName(source), formatName(fileName));		
@@ -133,57 +242,318 @@ public class VFSExecuterAdapter extends Executer
 	}
 		
 	/**
-	 *     
+	 *    
+	 */
+	public void read(String fileName) throws FileSystemException
+	{
+		String fullName = formatName(fileName);
+		long size = fileSystem.findFile(fullName).getVersion().getSize();
+		if (size > READ_LIMIT)
+			throw new FileSystemException(String.format("File %s is too large (%d bytes), specify offset and length", fileName, size));
+		read(fullName, 0, (int)size);
+	}
+	
+	/**
+	 *    
+	 */
+	public void read(String fileName, String offset, String length) throws FileSystemException
+	{
+		long count = number(length, "length");
+		if (count > READ_LIMIT)
+			throw new FileSystemException(String.format("Invalid length %s", length));
+		read(formatName(fileName), number(offset, "offset"), (int)count);
+	}
+	
+	private void read(String fullName, long offset, int length) throws FileSystemException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		fileSystem.read(fullName, offset, buffer);
+		session.notifySession(new String(buffer.array(), 0, buffer.position(), UTF8));
+	}
+	
+	/**
+	 *    
+	 */
+	public void write(String fileName, String text) throws FileSystemException
+	{
+		fileSystem.replace(formatName(fileName), session.getUserName(), ByteBuffer.wrap(text.getBytes(UTF8)));
+	}
+	
+	/**
+	 *     offset
+	 */
+	public void write(String fileName, String offset, String text) throws FileSystemException
+	{
+		fileSystem.write(formatName(fileName), session.getUserName(), number(offset, "offset"), ByteBuffer.wrap(text.getBytes(UTF8)));
+	}
+	
+	/**
+	 *     
+	 */
+	public void append(String fileName, String text) throws FileSystemException
+	{
+		fileSystem.append(formatName(fileName), session.getUserName(), ByteBuffer.wrap(text.getBytes(UTF8)));
+	}
+	
+	/**
+	 *   
+	 */
+	public void truncate(String fileName, String length) throws FileSystemException
+	{
+		fileSystem.truncate(formatName(fileName), session.getUserName(), number(length, "length"));
+	}
+	
+	/**
+	 *    
+	 */
+	private static long number(String value, String name) throws FileSystemException
+	{
+		try {
+			long result = Long.parseLong(value);
+			if (result >= 0)
+				return result;
+		} catch (NumberFormatException e) {
+			//  
+		}
+		throw new FileSystemException(String.format("Invalid %s %s", name, value));
+	}
+		
+	/**
+	 *  ,   
+	 */
+	public void locks()
+	{
+		locks(session.getUserName());
+	}
+	
+	/**
+	 *  ,  
+	 */
+	public void locks(String userName)
+	{
+		List<File> files = fileSystem.lockedFiles(userName);
+		if (files.isEmpty())
+		{
+			session.notifySession(String.format("No locks of %s", userName));
+			return;
+		}
+		ArrayList<String> names = new ArrayList<String>(files.size());
+		for (File file : files)
+			names.add(file.getFullName());
+		Collections.sort(names);
+		StringBuilder sb = new StringBuilder();
+		for (String name : names)
+		{
+			sb.append(name);
+			sb.append("\n");
+		}
+		session.notifySession(sb.toString());
+	}
+		
+	/**
+	 *    
+	 */
+	public void du() throws FileSystemException
+	{
+		du(currentDir.getFullName());
+	}
+	
+	/**
+	 *   :  ,     (O(1))
+	 */
+	public void du(String dirName) throws FileSystemException
+	{
+		String fullDirName = formatName(dirName);
+		Snapshot snapshot = fileSystem.snapshot(fullDirName);
+		DirectoryVersion version = snapshot.getVersion();
+		session.notifySession(String.format("%s: %d directories, %d files, %d locked", fullDirName, version.getTotalDirs(), version.getTotalFiles(), snapshot.getLocks().getCount()));
+	}
+		
+	/**
+	 *   : text -  , tagged -    
+	 */
+	public void protocol(String name) throws FileSystemException
+	{
+		session.setProtocol(name);
+	}
+		
+	/**
+	 *          .
+	 *   ,      .
+	 */
+	public void subscribe(String dirName)
+	{
+		String key = subscriptionKey(formatName(dirName)) + "\\";
+		subscriptions.addIfAbsent(key);
+	}
+	
+	/**
+	 *    
+	 */
+	public void unsubscribe(String dirName) throws FileSystemException
+	{
+		if (!subscriptions.remove(subscriptionKey(formatName(dirName)) + "\\"))
+			throw new FileSystemException(String.format("There is no subscription for %s", dirName));
+	}
+	
+	/**
+	 *   
+	 */
+	public void subscriptions()
+	{
+		if (subscriptions.isEmpty())
+		{
+			session.notifySession("No subscriptions, all notifications are delivered");
+			return;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (String key : subscriptions)
+		{
+			sb.append(key, 0, key.length() - 1);
+			sb.append("\n");
+		}
+		session.notifySession(sb.toString());
+	}
+	
+	/**
+	 * ,     paths  
+	 * @param paths - ,   subscriptionKey
+	 */
+	public boolean isSubscribed(String[] paths)
+	{
+		if (subscriptions.isEmpty())
+			return true;
+		for (String path : paths)
+		{
+			for (String key : subscriptions)
+			{
+				//         
+				if (path.startsWith(key) || (path.length() == key.length() - 1 && key.startsWith(path)))
+					return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 *         
+	 */
+	public static String subscriptionKey(String path)
+	{
+		if (path.endsWith("\\"))
+			path = path.substring(0, path.length() - 1);
+		return path.toLowerCase();
+	}
+	
+	/**
+	 *      (  ,  )
+	 *    "[!]"     .
 	 */
 	public void print()
 	{
 		StringBuilder sb = new StringBuilder();
-		for(Directory drive : fileSystem.listFileSystem().dirCollection())
+		Snapshot snapshot = fileSystem.snapshot();
+		LockVersion rootLocks = snapshot.getLocks();
+		for(DirectoryVersion dir : snapshot.getVersion().getDirs())
 		{
-			buildString(sb, "", "", drive);
+			Directory top;
+			try {
+				top = fileSystem.findDir(dir.getName());
+			} catch (FileSystemException e) {
+				//    
+				top = null;
+			}
+			buildString(sb, dir, rootLocks.getDir(dir.getName()), top);
 		}		
 		session.notifySession(sb.toString());
 	}
 	
 	/**
-	 *      
+	 *     (  )
+	 * 
+	 *     ,     .
+	 *     ,   -  ,  .
 	 * 
-	 *       
+	 *          (    ).
 	 * 
 	 * @param sb - StringBuilder
-	 * @param prefix1 -      
-	 * @param prefix2 -     "" -    prefix1   
-	 * @param dir -     
-	 */
-	private void buildString(StringBuilder sb, String prefix1, String prefix2,Directory dir)
-	{
-		sb.append(prefix1);
-		sb.append(dir.getName());
-		sb.append(dir.isEditing()?" [!]":"");
-		sb.append("\n");
-		ArrayList<Directory> list = new ArrayList<Directory>(dir.dirCollection());
-		Collections.sort(list);
-		
-		ArrayList<File> files = new ArrayList<File>(dir.fileCollection());
-		Collections.sort(files);
+	 * @param top -   
+	 * @param topLocks -     (null -  )
+	 * @param topDir -     (null -  )
+	 */
+	private void buildString(final StringBuilder sb, DirectoryVersion top, final LockVersion topLocks, final Directory topDir)
+	{
+		//    ,     (null -  ,  )
+		//    ""
+		final ArrayDeque<DirectoryVersion> path = new ArrayDeque<DirectoryVersion>();
+		final ArrayList<LockVersion> locks = new ArrayList<LockVersion>();
+		final ArrayList<Directory> nodes = new ArrayList<Directory>();
+		final ArrayDeque<String> prefixes = new ArrayDeque<String>();
+		new TreeWalker<DirectoryVersion>() {
+			@Override
+			protected Iterator<DirectoryVersion> children(DirectoryVersion dir)
+			{
+				return dir.getDirs().iterator();
+			}
 		
-		for(int i=0;i<list.size();i++)
-		{
-			if (i<list.size()-1 || files.size()!=0)
-				buildString(sb, prefix2 + "|_", prefix2 + "| ", list.get(i));
-			else
-				buildString(sb, prefix2 + "|_", prefix2 + "  ", list.get(i));
-		}	
+			@Override
+			protected boolean enter(DirectoryVersion dir)
+			{
+				String prefix1 = "";
+				String prefix2 = "";
+				DirectoryVersion parent = path.peek();
+				if (parent != null)
+				{
+					String parentPrefix = prefixes.peek();
+					boolean last = parent.getFileCount() == 0 && parent.getDir(parent.getDirCount() - 1) == dir;
+					prefix1 = parentPrefix + "|_";
+					prefix2 = parentPrefix + (last ? "  " : "| ");
+				}
+				Directory node;
+				LockVersion dirLocks;
+				if (parent == null)
+				{
+					node = topDir;
+					dirLocks = topLocks;
+				}
+				else
+				{
+					Directory parentNode = nodes.get(nodes.size() - 1);
+					node = parentNode != null ? parentNode.peekDir(dir.getName()) : null;
+					LockVersion parentLocks = locks.get(locks.size() - 1);
+					dirLocks = parentLocks != null ? parentLocks.getDir(dir.getName()) : null;
+				}
+				sb.append(prefix1);
+				sb.append(dir.getName());
+				sb.append(node != null && node.isEditing() ? " [!]" : "");
+				sb.append("\n");
+				path.push(dir);
+				locks.add(dirLocks);
+				nodes.add(node);
+				prefixes.push(prefix2);
+				return true;
+			}
 		
-		for(int i=0;i<files.size();i++)
-		{
-			sb.append(prefix2);
-			sb.append("|_");
-			sb.append(files.get(i).getName());
-			sb.append(files.get(i).lockInfo());
-			sb.append(files.get(i).isEditing()?" [!]":"");
-			sb.append("\n");						
-		}
+			@Override
+			protected void leave(DirectoryVersion dir)
+			{
+				path.pop();
+				LockVersion dirLocks = locks.remove(locks.size() - 1);
+				Directory node = nodes.remove(nodes.size() - 1);
+				String prefix2 = prefixes.pop();
+				for(FileVersion version : dir.getFiles())
+				{
+					File file = node != null ? node.peekFile(version.getName()) : null;
+					LockVersion.Lockers lockers = dirLocks != null ? dirLocks.getLockers(version.getName()) : null;
+					sb.append(prefix2);
+					sb.append("|_");
+					sb.append(version.getName());
+					sb.append(lockers != null ? lockers.lockInfo() : "");
+					sb.append(file != null && file.isEditing() ? " [!]" : "");
+					sb.append("\n");						
+				}
+			}
+		}.walk(top);
 	}
 
 	/**
@@ -193,11 +563,15 @@ public class VFSExecuterAdapter extends Executer
 	 */
 	public String formatName(String dirOrFileName)
 	{
+		String result;
 		if (dirOrFileName.length()<2 || dirOrFileName.charAt(1)!=':')
 		{
-			return currentDir.getFullName() + "\\" + dirOrFileName;
+			result = currentDir.getFullName() + "\\" + dirOrFileName;
 		} else
-			return dirOrFileName;
+			result = dirOrFileName;
+		//    
+		touched.add(result);
+		return result;
 	}
 	
 	/**
@@ -213,21 +587,62 @@ public class VFSExecuterAdapter extends Executer
 			session.notifySession(session.getUserName());
 		} else if (arg.startsWith("dl\\"))
 		{
-			fileSystem.listFileSystem().findDir(formatName(arg.substring(3))).beginUpdate();
+			testLock(fileSystem.findDir(formatName(arg.substring(3))), false);
 			session.notifySession(String.format("%s editing is started", arg.substring(3)));
 		} else if (arg.startsWith("fl\\"))
 		{
-			fileSystem.listFileSystem().findFile(formatName(arg.substring(3))).beginUpdate();
+			testLock(fileSystem.findFile(formatName(arg.substring(3))), false);
 			session.notifySession(String.format("%s editing is started", arg.substring(3)));
+		} else if (arg.startsWith("sl\\"))
+		{
+			testLock(fileSystem.findDir(formatName(arg.substring(3))), true);
+			session.notifySession(String.format("%s reading is started", arg.substring(3)));
 		} else if (arg.startsWith("ul"))
 		{
-			fileSystem.listFileSystem().endUpdateResursive();
+			releaseLocks();
 			session.notifySession(String.format("All editings are finished"));
 		} else if (arg.startsWith("rl\\"))
 		{
-			fileSystem.listFileSystem().findDir(formatName(arg.substring(3))).beginUpdate();
+			//      
+			testLock(fileSystem.findDir(formatName(arg.substring(3))), false);
 			session.notifySession(String.format("%s recursive editing is started", arg.substring(3)));
-		} else session.notifySession("Use test:\n\tcd\n\tuser\n\tfl\\filename\n\tdl\\dirname\n\trl\\dirname\n\tul");
+		} else session.notifySession("Use test:\n\tcd\n\tuser\n\tfl\\filename\n\tdl\\dirname\n\trl\\dirname\n\tsl\\dirname\n\tul");
+	}
+
+	/**
+	 *      test ul
+	 * @param shared -    (S),   (X)
+	 */
+	private void testLock(AtomEdit node, boolean shared) throws FileSystemException
+	{
+		HierarchyLock lock = new HierarchyLock();
+		if (shared)
+			lock.shared(node);
+		else
+			lock.exclusive(node);
+		if (!lock.acquire())
+			throw new FileSystemException(String.format("Object %s has been changed by another user", node.getName()));
+		locks.add(lock);
+	}
+
+	/**
+	 *  ,   test
+	 * ( :        )
+	 */
+	void releaseLocks()
+	{
+		HierarchyLock lock;
+		while ((lock = locks.poll()) != null)
+			lock.release();
+	}
+
+	/**
+	 *       ( )
+	 * @return   
+	 */
+	int releaseUserLocks() throws FileSystemException
+	{
+		return fileSystem.unlockAll(session.getUserName());
 	}
 
 }
@@ -15,6 +15,37 @@ public class VFSProperties extends Properties {
 	private static final long serialVersionUID = 5396552419904815264L;
 	final static public String fileName = "app.config";
 	
+	//    
+	final static public String MODE_THREAD = "thread";
+	final static public String MODE_NIO = "nio";
+	final static public String MODE_VIRTUAL = "virtual";
+	
+	//   : , 
+	private static final String[][] defaults = {
+		{"port", "8123"},
+		// thread -    , virtual -      (Java 21+),
+		// nio -  - (SelectorServer)
+		{"mode", MODE_THREAD},
+		//   -   nio
+		{"ioThreads", "2"},
+		//        nio
+		{"workerThreads", "16"},
+		//       nio
+		{"bufferSize", "4096"},
+		//        
+		{"outboundLimit", "1024"},
+		//    : drop, coalesce  disconnect
+		{"slowConsumerPolicy", "coalesce"},
+		//        (0 -  )
+		{"notifyWindow", "50"},
+		//        
+		{"lockTimeout", "5000"},
+		//     (  -     )
+		{"journal", ""},
+		//       (0 -   )
+		{"checkpointInterval", "300"},
+	};
+	
 	/**
 	 *   
 	 */
@@ -26,17 +57,94 @@ public class VFSProperties extends Properties {
 			result = Integer.parseInt(getProperty(key));
 		}catch(NumberFormatException exception)
 		{
-			setDefaults(); // TO DO: set default property value by name 
+			setDefault(key);
 			save();
 			result = Integer.parseInt(getProperty(key)); 
 		}
 		return result;		
 	}
 
+	/**
+	 *   
+	 */
+	private String getStringProperty(String key)
+	{
+		String result = getProperty(key);
+		if (result == null || result.trim().isEmpty())
+		{
+			setDefault(key);
+			save();
+			result = getProperty(key);
+		}
+		return result.trim();
+	}
+
 	public int getPort()
 	{
 		return getIntProperty("port");
 	}
+	
+	public String getMode()
+	{
+		return getStringProperty("mode");
+	}
+	
+	public int getIoThreads()
+	{
+		return getIntProperty("ioThreads");
+	}
+	
+	public int getWorkerThreads()
+	{
+		return getIntProperty("workerThreads");
+	}
+	
+	public int getBufferSize()
+	{
+		return getIntProperty("bufferSize");
+	}
+    	
+	public int getOutboundLimit()
+	{
+		return getIntProperty("outboundLimit");
+	}
+	
+	public int getNotifyWindow()
+	{
+		return getIntProperty("notifyWindow");
+	}
+	
+	public int getLockTimeout()
+	{
+		return getIntProperty("lockTimeout");
+	}
+	
+	/**
+	 *     (  -   )
+	 */
+	public String getJournal()
+	{
+		String result = getProperty("journal");
+		return result == null ? "" : result.trim();
+	}
+	
+	public int getCheckpointInterval()
+	{
+		return getIntProperty("checkpointInterval");
+	}
+	
+	public OutboundQueue.Policy getSlowConsumerPolicy()
+	{
+		try
+		{
+			return OutboundQueue.Policy.valueOf(getStringProperty("slowConsumerPolicy").toUpperCase());
+		}catch(IllegalArgumentException exception)
+		{
+			setDefault("slowConsumerPolicy");
+			save();
+			return OutboundQueue.Policy.valueOf(getStringProperty("slowConsumerPolicy").toUpperCase());
+		}
+	}
     	
 
 	/**
@@ -44,7 +152,20 @@ public class VFSProperties extends Properties {
 	 */
 	private void setDefaults()
 	{
-		setProperty("port", "8123");
+		for (String[] pair : defaults)
+			setProperty(pair[0], pair[1]);
+	}
+	
+	/**
+	 *       
+	 */
+	private void setDefault(String key)
+	{
+		for (String[] pair : defaults)
+		{
+			if (pair[0].equals(key))
+				setProperty(pair[0], pair[1]);
+		}
 	}
 	
 	/**
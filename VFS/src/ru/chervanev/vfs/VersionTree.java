@@ -0,0 +1,277 @@
+package ru.chervanev.vfs;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ *     ,    (  ).
+ *
+ *    ,     (Adams):  - O(log n).
+ *    - null. ,          ,
+ *        ,    
+ *    O(log n)      .
+ *       (SharedNode).
+ */
+final class VersionTree<T extends NodeVersion> extends SharedNode
+{
+	//       DELTA  -  ;
+	//       RATIO   
+	private static final int DELTA = 3;
+	private static final int RATIO = 2;
+
+	final T item;
+	final VersionTree<T> left;
+	final VersionTree<T> right;
+	//    
+	final int size;
+
+	private VersionTree(T item, VersionTree<T> left, VersionTree<T> right)
+	{
+		this.item = item;
+		this.left = left;
+		this.right = right;
+		this.size = size(left) + size(right) + 1;
+	}
+
+	static int size(VersionTree<?> tree)
+	{
+		return tree == null ? 0 : tree.size;
+	}
+
+	@Override
+	protected void parts(ArrayList<SharedNode> parts)
+	{
+		parts.add(item);
+		if (left != null)
+			parts.add(left);
+		if (right != null)
+			parts.add(right);
+	}
+
+	/**
+	 *  item   ,            
+	 */
+	static boolean isUnique(VersionTree<?> tree, NodeVersion item)
+	{
+		String name = item.getName();
+		while (tree != null && tree.refs() == 1)
+		{
+			int compare = name.compareTo(tree.item.getName());
+			if (compare == 0)
+				return tree.item == item;
+			tree = compare < 0 ? tree.left : tree.right;
+		}
+		return false;
+	}
+
+	/**
+	 *    
+	 * @return   null
+	 */
+	static <T extends NodeVersion> T get(VersionTree<T> tree, String name)
+	{
+		while (tree != null)
+		{
+			int compare = name.compareTo(tree.item.getName());
+			if (compare == 0)
+				return tree.item;
+			tree = compare < 0 ? tree.left : tree.right;
+		}
+		return null;
+	}
+
+	/**
+	 *    index   
+	 */
+	static <T extends NodeVersion> T get(VersionTree<T> tree, int index)
+	{
+		if (index < 0 || index >= size(tree))
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		while (true)
+		{
+			int leftSize = size(tree.left);
+			if (index == leftSize)
+				return tree.item;
+			if (index < leftSize)
+				tree = tree.left;
+			else
+			{
+				index -= leftSize + 1;
+				tree = tree.right;
+			}
+		}
+	}
+
+	/**
+	 *      ( ) 
+	 */
+	static <T extends NodeVersion> VersionTree<T> put(VersionTree<T> tree, T item)
+	{
+		if (tree == null)
+			return new VersionTree<T>(item, null, null);
+		int compare = item.getName().compareTo(tree.item.getName());
+		if (compare < 0)
+			return balance(tree.item, put(tree.left, item), tree.right);
+		if (compare > 0)
+			return balance(tree.item, tree.left, put(tree.right, item));
+		return item == tree.item ? tree : new VersionTree<T>(item, tree.left, tree.right);
+	}
+
+	/**
+	 *      
+	 */
+	static <T extends NodeVersion> VersionTree<T> remove(VersionTree<T> tree, String name)
+	{
+		if (tree == null)
+			return null;
+		int compare = name.compareTo(tree.item.getName());
+		if (compare < 0)
+		{
+			VersionTree<T> left = remove(tree.left, name);
+			return left == tree.left ? tree : balance(tree.item, left, tree.right);
+		}
+		if (compare > 0)
+		{
+			VersionTree<T> right = remove(tree.right, name);
+			return right == tree.right ? tree : balance(tree.item, tree.left, right);
+		}
+		return glue(tree.left, tree.right);
+	}
+
+	/**
+	 *    ,    (O(n))
+	 */
+	static <T extends NodeVersion> VersionTree<T> of(T[] items)
+	{
+		return of(items, 0, items.length);
+	}
+
+	private static <T extends NodeVersion> VersionTree<T> of(T[] items, int from, int to)
+	{
+		if (from == to)
+			return null;
+		int middle = (from + to) >>> 1;
+		return new VersionTree<T>(items[middle], of(items, from, middle), of(items, middle + 1, to));
+	}
+
+	/**
+	 *     
+	 */
+	static <T extends NodeVersion> Iterable<T> items(final VersionTree<T> tree)
+	{
+		return new Iterable<T>() {
+			public Iterator<T> iterator()
+			{
+				return new Items<T>(tree);
+			}
+		};
+	}
+
+	/**
+	 *      (   )
+	 */
+	private static class Items<T extends NodeVersion> implements Iterator<T>
+	{
+		private final ArrayDeque<VersionTree<T>> path = new ArrayDeque<VersionTree<T>>();
+
+		Items(VersionTree<T> tree)
+		{
+			descend(tree);
+		}
+
+		private void descend(VersionTree<T> tree)
+		{
+			for (; tree != null; tree = tree.left)
+				path.push(tree);
+		}
+
+		public boolean hasNext()
+		{
+			return !path.isEmpty();
+		}
+
+		public T next()
+		{
+			if (path.isEmpty())
+				throw new NoSuchElementException();
+			VersionTree<T> tree = path.pop();
+			descend(tree.right);
+			return tree.item;
+		}
+
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 *     (  left   right)
+	 */
+	private static <T extends NodeVersion> VersionTree<T> glue(VersionTree<T> left, VersionTree<T> right)
+	{
+		if (left == null)
+			return right;
+		if (right == null)
+			return left;
+		//       
+		if (left.size > right.size)
+		{
+			VersionTree<T> last = left;
+			while (last.right != null)
+				last = last.right;
+			return balance(last.item, removeLast(left), right);
+		}
+		VersionTree<T> first = right;
+		while (first.left != null)
+			first = first.left;
+		return balance(first.item, left, removeFirst(right));
+	}
+
+	private static <T extends NodeVersion> VersionTree<T> removeFirst(VersionTree<T> tree)
+	{
+		if (tree.left == null)
+			return tree.right;
+		return balance(tree.item, removeFirst(tree.left), tree.right);
+	}
+
+	private static <T extends NodeVersion> VersionTree<T> removeLast(VersionTree<T> tree)
+	{
+		if (tree.right == null)
+			return tree.left;
+		return balance(tree.item, tree.left, removeLast(tree.right));
+	}
+
+	/**
+	 *     ,         
+	 *   (     )
+	 */
+	private static <T extends NodeVersion> VersionTree<T> balance(T item, VersionTree<T> left, VersionTree<T> right)
+	{
+		int leftSize = size(left);
+		int rightSize = size(right);
+		if (leftSize + rightSize <= 1)
+			return new VersionTree<T>(item, left, right);
+		if (rightSize > DELTA * leftSize)
+		{
+			//  
+			VersionTree<T> inner = right.left;
+			if (size(inner) < RATIO * size(right.right))
+				return new VersionTree<T>(right.item, new VersionTree<T>(item, left, inner), right.right);
+			return new VersionTree<T>(inner.item, new VersionTree<T>(item, left, inner.left),
+					new VersionTree<T>(right.item, inner.right, right.right));
+		}
+		if (leftSize > DELTA * rightSize)
+		{
+			//  
+			VersionTree<T> inner = left.right;
+			if (size(inner) < RATIO * size(left.left))
+				return new VersionTree<T>(left.item, left.left, new VersionTree<T>(item, inner, right));
+			return new VersionTree<T>(inner.item, new VersionTree<T>(left.item, left.left, inner.left),
+					new VersionTree<T>(item, inner.right, right));
+		}
+		return new VersionTree<T>(item, left, right);
+	}
+}
@@ -0,0 +1,398 @@
+package ru.chervanev.vfs;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ *    (write-ahead log)   .
+ *
+ *  : int  , int CRC32 , : byte  ,
+ *  long  , byte  ,  (BinaryProtocol.writeString),
+ *    (  ): int , .
+ *
+ *        (append,    MemoryVFS)
+ *        :    -  
+ *      FileChannel.force.      (sync)  
+ *  ,     .
+ *
+ *     : base ( 0), base.1, base.2  ..   
+ *  (rotate)     ,  ,   
+ *   ;         (deleteBefore).
+ *
+ *    (replay)     ;   
+ *     (   ) .
+ */
+public class WriteAheadLog
+{
+	//  
+	public static final byte MD = 1;
+	public static final byte RD = 2;
+	public static final byte DELTREE = 3;
+	public static final byte MF = 4;
+	public static final byte DEL = 5;
+	public static final byte LOCK = 6;
+	public static final byte UNLOCK = 7;
+	public static final byte COPY = 8;
+	public static final byte MOVE = 9;
+	public static final byte RENEW = 10;
+	public static final byte WRITE = 11;
+	public static final byte TRUNCATE = 12;
+	public static final byte REPLACE = 13;
+
+	//  :    
+	private static final int HEADER = 8;
+	//         (  )
+	private static final ByteBuffer ROTATE = ByteBuffer.allocate(0);
+
+	/**
+	 *     
+	 */
+	public interface Handler
+	{
+		/**
+		 * @param data -  , null -   
+		 */
+		void apply(byte type, long value, String[] args, ByteBuffer data) throws FileSystemException;
+	}
+
+	private final String baseName;
+	//     ,     
+	private long generation;
+	private FileChannel channel;
+	// ,        (    ROTATE)
+	private final ArrayDeque<FileChannel> segments = new ArrayDeque<FileChannel>();
+	// ,    ,        
+	private ArrayList<ByteBuffer> pending = new ArrayList<ByteBuffer>();
+	private long appended;
+	private long durable;
+	//  :     
+	private volatile IOException failure;
+	private Thread writer;
+
+	/**
+	 * @param baseName -     0
+	 */
+	public WriteAheadLog(String baseName)
+	{
+		this.baseName = baseName;
+	}
+
+	/**
+	 *   
+	 */
+	public String segmentName(long segment)
+	{
+		return segment == 0 ? baseName : baseName + "." + segment;
+	}
+
+	/**
+	 * :   ,    first,   
+	 *   .      .
+	 * @return   
+	 */
+	public int replay(long first, Handler handler) throws IOException
+	{
+		//    ,   - 
+		deleteBefore(first);
+		int count = 0;
+		generation = first;
+		while (true)
+		{
+			FileChannel segment = new RandomAccessFile(segmentName(generation), "rw").getChannel();
+			count += replay(segment, handler);
+			if (!new java.io.File(segmentName(generation + 1)).exists())
+			{
+				channel = segment;
+				return count;
+			}
+			segment.close();
+			generation++;
+		}
+	}
+
+	/**
+	 *   ,   
+	 */
+	private int replay(FileChannel segment, Handler handler) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(segment.position(0))));
+		long valid = 0;
+		int count = 0;
+		CRC32 crc = new CRC32();
+		while (true)
+		{
+			byte[] data;
+			try {
+				int length = in.readInt();
+				int checksum = in.readInt();
+				if (length <= 0 || length > BinaryProtocol.MAX_FRAME)
+					break;
+				data = new byte[length];
+				in.readFully(data);
+				crc.reset();
+				crc.update(data, 0, length);
+				if ((int)crc.getValue() != checksum)
+					break;
+			} catch (EOFException e) {
+				break;
+			}
+			DataInputStream record = new DataInputStream(new ByteArrayInputStream(data));
+			byte type = record.readByte();
+			long value = record.readLong();
+			String[] args = new String[record.readByte()];
+			for (int i = 0; i < args.length; i++)
+				args[i] = BinaryProtocol.readString(record);
+			ByteBuffer payload = null;
+			if (record.available() > 0)
+			{
+				payload = ByteBuffer.allocate(record.readInt());
+				record.readFully(payload.array());
+			}
+			try {
+				handler.apply(type, value, args, payload);
+			} catch (FileSystemException e) {
+				//     :    
+				System.err.printf("Journal record %d is not applied: %s%n", count, e.getMessage());
+			}
+			valid += HEADER + data.length;
+			count++;
+		}
+		segment.truncate(valid);
+		segment.position(valid);
+		return count;
+	}
+
+	/**
+	 *    :     .
+	 *    ,   append.
+	 * @return   
+	 */
+	public synchronized long rotate() throws IOException
+	{
+		if (failure != null)
+			throw failure;
+		FileChannel segment = new RandomAccessFile(segmentName(generation + 1), "rw").getChannel();
+		generation++;
+		segments.add(segment);
+		pending.add(ROTATE);
+		start();
+		notifyAll();
+		return generation;
+	}
+
+	/**
+	 *     first (   )
+	 */
+	public void deleteBefore(long first)
+	{
+		for (long segment = first - 1; segment >= 0; segment--)
+		{
+			java.io.File file = new java.io.File(segmentName(segment));
+			if (!file.exists())
+				break;
+			if (!file.delete())
+				System.err.printf("Journal segment %s is not deleted%n", file.getName());
+		}
+	}
+
+	/**
+	 *       
+	 * @return      (sync)
+	 */
+	public long append(byte type, long value, String... args)
+	{
+		return append(type, value, null, args);
+	}
+
+	/**
+	 *     (  data  )
+	 * @return      (sync)
+	 */
+	public long append(byte type, long value, ByteBuffer data, String... args)
+	{
+		ByteBuffer record = encode(type, value, data, args);
+		synchronized (this)
+		{
+			appended++;
+			//      :   (sync)    
+			if (failure == null)
+			{
+				pending.add(record);
+				start();
+				notifyAll();
+			}
+			return appended;
+		}
+	}
+
+	/**
+	 *    (null -  ).       .
+	 */
+	public IOException getFailure()
+	{
+		return failure;
+	}
+
+	/**
+	 *      
+	 */
+	private void start()
+	{
+		if (writer != null)
+			return;
+		writer = new Thread(new Runnable() {
+			public void run()
+			{
+				work();
+			}
+		}, "WriteAheadLog");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 *     
+	 * @throws IOException -      
+	 */
+	public synchronized void sync(long sequence) throws IOException
+	{
+		boolean interrupted = false;
+		while (durable < sequence && failure == null)
+		{
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		if (durable < sequence)
+			throw failure;
+	}
+
+	/**
+	 *    
+	 */
+	private static ByteBuffer encode(byte type, long value, ByteBuffer data, String[] args)
+	{
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(data == null ? 64 : 64 + data.remaining());
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0);
+			out.writeInt(0);
+			out.writeByte(type);
+			out.writeLong(value);
+			out.writeByte(args.length);
+			for (String arg : args)
+				BinaryProtocol.writeString(out, arg);
+			if (data != null)
+			{
+				byte[] payload = new byte[data.remaining()];
+				data.duplicate().get(payload);
+				out.writeInt(payload.length);
+				out.write(payload);
+			}
+			byte[] encoded = bytes.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(encoded, HEADER, encoded.length - HEADER);
+			ByteBuffer record = ByteBuffer.wrap(encoded);
+			record.putInt(0, encoded.length - HEADER);
+			record.putInt(4, (int)crc.getValue());
+			return record;
+		} catch (IOException e) {
+			//      
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 *   :         (  )
+	 */
+	private void work()
+	{
+		while (true)
+		{
+			ArrayList<ByteBuffer> batch;
+			ArrayDeque<FileChannel> next = new ArrayDeque<FileChannel>();
+			long last;
+			synchronized (this)
+			{
+				while (pending.isEmpty())
+				{
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				batch = pending;
+				pending = new ArrayList<ByteBuffer>();
+				last = appended;
+				for (ByteBuffer record : batch)
+					if (record == ROTATE)
+						next.add(segments.poll());
+			}
+			IOException error = null;
+			try {
+				int from = 0;
+				for (int i = 0; i < batch.size(); i++)
+				{
+					if (batch.get(i) != ROTATE)
+						continue;
+					//        
+					write(batch.subList(from, i));
+					channel.close();
+					channel = next.poll();
+					from = i + 1;
+				}
+				write(batch.subList(from, batch.size()));
+			} catch (IOException e) {
+				error = e;
+			}
+			synchronized (this)
+			{
+				if (error != null)
+				{
+					failure = error;
+					pending.clear();
+					notifyAll();
+					return;
+				}
+				durable = last;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 *          
+	 */
+	private void write(List<ByteBuffer> batch) throws IOException
+	{
+		if (batch.isEmpty())
+			return;
+		ByteBuffer[] buffers = batch.toArray(new ByteBuffer[batch.size()]);
+		int current = 0;
+		while (current < buffers.length)
+		{
+			channel.write(buffers, current, buffers.length - current);
+			while (current < buffers.length && !buffers[current].hasRemaining())
+				current++;
+		}
+		channel.force(false);
+	}
+}
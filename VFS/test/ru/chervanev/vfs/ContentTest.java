@@ -0,0 +1,182 @@
+package ru.chervanev.vfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ *        .
+ *    ,    ;      .
+ */
+public class ContentTest
+{
+	private Random random = new Random(17);
+
+	/**
+	 *     
+	 */
+	private ByteBuffer data(int chunks)
+	{
+		byte[] bytes = new byte[chunks * Content.CHUNK];
+		random.nextBytes(bytes);
+		return ByteBuffer.wrap(bytes);
+	}
+
+	@Test
+	public void retainAndReleaseArePaired()
+	{
+		int stored = Content.storedBlocks();
+		Content content = Content.EMPTY.write(0, data(2));
+		assertEquals(1, content.holders());
+		assertEquals(stored + 2, Content.storedBlocks());
+
+		//    :   ,   
+		content.retain();
+		Content changed = content.write(0, data(1));
+		assertEquals(2, content.holders());
+		assertEquals(1, content.references(0));
+		assertEquals(2, content.references(1));
+		assertEquals(stored + 3, Content.storedBlocks());
+
+		content.release();
+		assertEquals(stored + 3, Content.storedBlocks());
+		content.release();
+		assertEquals(1, changed.references(1));
+		assertEquals(stored + 2, Content.storedBlocks());
+		changed.release();
+		assertEquals(stored, Content.storedBlocks());
+	}
+
+	@Test
+	public void exclusiveWriteKeepsBlocks()
+	{
+		int stored = Content.storedBlocks();
+		Content content = Content.EMPTY.write(0, data(2));
+		//  :         
+		Content changed = content.write(Content.CHUNK, data(1));
+		content.release();
+		assertEquals(1, changed.references(0));
+		assertEquals(1, changed.references(1));
+		assertEquals(stored + 2, Content.storedBlocks());
+		changed.release();
+		assertEquals(stored, Content.storedBlocks());
+	}
+
+	@Test
+	public void duplicateBlockIsReplaced()
+	{
+		int stored = Content.storedBlocks();
+		ByteBuffer block = data(1);
+		Content first = Content.EMPTY.write(0, block);
+		Content second = Content.EMPTY.write(0, block);
+		assertEquals(stored + 1, Content.storedBlocks());
+		assertEquals(2, first.references(0));
+
+		//     
+		Content changed = second.write(0, data(1));
+		second.release();
+		assertEquals(1, first.references(0));
+		assertEquals(stored + 2, Content.storedBlocks());
+
+		// ,       ,      
+		Content same = changed.write(0, block);
+		changed.release();
+		assertEquals(2, first.references(0));
+		assertEquals(stored + 1, Content.storedBlocks());
+
+		first.release();
+		same.release();
+		assertEquals(stored, Content.storedBlocks());
+	}
+
+	@Test
+	public void pinnedBlockIsNotChanged()
+	{
+		int stored = Content.storedBlocks();
+		ByteBuffer block = data(1);
+		Content content = Content.EMPTY.write(0, block);
+		Content.Slices slices = content.slices(0, Content.CHUNK);
+		//       
+		Content changed = content.write(0, data(1));
+		content.release();
+		assertEquals(block, slices.getBuffers()[0]);
+		assertEquals(stored + 1, Content.storedBlocks());
+		slices.release();
+		slices.release();
+		changed.release();
+		assertEquals(stored, Content.storedBlocks());
+	}
+
+	@Test
+	public void copiesAndDeletesReleaseContents() throws FileSystemException
+	{
+		MemoryVFS fs = new MemoryVFS();
+		int stored = Content.storedBlocks();
+		fs.md("c:\\src");
+		fs.md("c:\\src\\sub");
+		fs.mf("c:\\src\\sub\\f");
+		fs.write("c:\\src\\sub\\f", "u", 0, data(2));
+		fs.md("c:\\dst");
+		Content content = fs.findFile("c:\\src\\sub\\f").getContent();
+		assertEquals(1, content.holders());
+		fs.copy("c:\\src", "c:\\dst");
+		//    :   - -   
+		assertEquals(1, content.holders());
+		assertSame(content, fs.findFile("c:\\dst\\src\\sub\\f").getContent());
+		assertEquals(1, content.holders());
+
+		//    :   
+		fs.write("c:\\dst\\src\\sub\\f", "u", 0, data(1));
+		assertEquals(1, content.holders());
+		assertEquals(2, content.references(1));
+		fs.delTree("c:\\src");
+		assertEquals(stored + 2, Content.storedBlocks());
+
+		//         
+		Content copied = fs.findFile("c:\\dst\\src\\sub\\f").getContent();
+		fs.md("c:\\again");
+		fs.copy("c:\\dst\\src", "c:\\again");
+		fs.delTree("c:\\again");
+		assertEquals(1, copied.holders());
+		assertEquals(stored + 2, Content.storedBlocks());
+
+		//      
+		fs.rd("c:\\dst\\src\\sub");
+		assertEquals(stored, Content.storedBlocks());
+	}
+
+	@Test
+	public void copyIsIsolatedFromWrites() throws FileSystemException
+	{
+		MemoryVFS fs = new MemoryVFS();
+		int stored = Content.storedBlocks();
+		ByteBuffer original = data(2);
+		fs.md("c:\\src");
+		fs.mf("c:\\src\\f");
+		fs.write("c:\\src\\f", "u", 0, original);
+		fs.md("c:\\dst");
+		fs.copy("c:\\src", "c:\\dst");
+
+		//      ,     
+		fs.write("c:\\src\\f", "u", 0, data(1));
+		ByteBuffer copied = ByteBuffer.allocate(2 * Content.CHUNK);
+		fs.read("c:\\dst\\src\\f", 0, copied);
+		copied.flip();
+		assertEquals(original, copied);
+
+		//        :   
+		Content content = fs.findFile("c:\\dst\\src\\f").getContent();
+		fs.write("c:\\dst\\src\\f", "u", Content.CHUNK, data(1));
+		Content changed = fs.findFile("c:\\dst\\src\\f").getContent();
+		assertEquals(1, changed.references(0));
+		assertEquals(0, content.holders());
+
+		fs.delTree("c:\\src");
+		fs.delTree("c:\\dst");
+		assertEquals(stored, Content.storedBlocks());
+	}
+}
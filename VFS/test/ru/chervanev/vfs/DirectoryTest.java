@@ -0,0 +1,100 @@
+package ru.chervanev.vfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ *  :        ,
+ *       .
+ */
+public class DirectoryTest
+{
+	/**
+	 *   (,     ),   
+	 *     known
+	 */
+	private static Set<Object> nodes(DirectoryVersion root, Set<Object> known)
+	{
+		Set<Object> result = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+		ArrayList<Object> stack = new ArrayList<Object>();
+		stack.add(root);
+		while (!stack.isEmpty())
+		{
+			Object node = stack.remove(stack.size() - 1);
+			if (node == null || known.contains(node) || !result.add(node))
+				continue;
+			if (node instanceof DirectoryVersion)
+			{
+				stack.add(((DirectoryVersion)node).dirs);
+				stack.add(((DirectoryVersion)node).files);
+			}
+			else if (node instanceof VersionTree)
+			{
+				VersionTree<?> tree = (VersionTree<?>)node;
+				stack.add(tree.left);
+				stack.add(tree.right);
+				stack.add(tree.item);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 *         dirs   10 ,
+	 *       
+	 */
+	private static int copyCost(int dirs) throws FileSystemException
+	{
+		MemoryVFS fs = new MemoryVFS();
+		fs.md("c:\\src");
+		for (int i = 0; i < dirs; i++)
+		{
+			String dir = "c:\\src\\d" + i;
+			fs.md(dir);
+			for (int j = 0; j < 10; j++)
+				fs.mf(dir + "\\f" + j);
+		}
+		fs.write("c:\\src\\d0\\f0", "u", 0, ByteBuffer.wrap(new byte[] {1, 2, 3}));
+		fs.lock("c:\\src\\d0\\f1", "u");
+		fs.md("c:\\dst");
+		Content content = fs.findFile("c:\\src\\d0\\f0").getContent();
+		DirectoryVersion source = fs.findDir("c:\\src").getVersion();
+		DirectoryVersion before = fs.snapshot().getVersion();
+
+		fs.copy("c:\\src", "c:\\dst");
+		Directory copy = fs.findDir("c:\\dst\\src");
+		//    ; :  ,    
+		assertSame(source, copy.getVersion());
+		assertEquals(3, source.refs());
+		assertEquals(1, content.holders());
+		//     
+		assertEquals(0, copy.getLocks().getCount());
+		assertEquals(1, fs.findDir("c:\\src").getLocks().getCount());
+
+		int cost = nodes(fs.snapshot().getVersion(), nodes(before, Collections.<Object>emptySet())).size();
+		fs.unlock("c:\\src\\d0\\f1", "u");
+		fs.delTree("c:\\src");
+		fs.delTree("c:\\dst");
+		assertEquals(0, content.holders());
+		return cost;
+	}
+
+	@Test
+	public void copyCostDoesNotDependOnSize() throws FileSystemException
+	{
+		int small = copyCost(10);
+		int large = copyCost(2000);
+		//   -     
+		assertEquals(small, large);
+		assertTrue(String.valueOf(large), large <= 10);
+	}
+}
@@ -0,0 +1,110 @@
+package ru.chervanev.vfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ *    :       
+ *  ,         .
+ */
+public class DirectoryVersionTest
+{
+	/**
+	 *   ,     ( )
+	 */
+	static int fresh(VersionTree<?> tree, VersionTree<?> old)
+	{
+		Set<VersionTree<?>> shared = Collections.newSetFromMap(new IdentityHashMap<VersionTree<?>, Boolean>());
+		ArrayList<VersionTree<?>> stack = new ArrayList<VersionTree<?>>();
+		for (stack.add(old); !stack.isEmpty(); )
+		{
+			VersionTree<?> node = stack.remove(stack.size() - 1);
+			if (node != null && shared.add(node))
+			{
+				stack.add(node.left);
+				stack.add(node.right);
+			}
+		}
+		int count = 0;
+		for (stack.add(tree); !stack.isEmpty(); )
+		{
+			VersionTree<?> node = stack.remove(stack.size() - 1);
+			if (node != null && !shared.contains(node))
+			{
+				count++;
+				stack.add(node.left);
+				stack.add(node.right);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 *   files     
+	 */
+	private static DirectoryVersion wide(String name, int files)
+	{
+		DirectoryVersion dir = new DirectoryVersion(name).withDir(new DirectoryVersion("sub"));
+		for (int i = 0; i < files; i++)
+			dir = dir.withFile(new FileVersion("f" + i));
+		return dir;
+	}
+
+	/**
+	 *           files 
+	 */
+	private static int replaceCost(int files)
+	{
+		DirectoryVersion dir = wide("wide", files);
+		DirectoryVersion changed = dir.withFile(new FileVersion("f" + files / 3));
+		return fresh(changed.files, dir.files);
+	}
+
+	@Test
+	public void wideDirectoryChangeCopiesPath()
+	{
+		int small = replaceCost(1 << 8);
+		int large = replaceCost(1 << 16);
+		//   - O(log n):  256    -      
+		assertTrue(small + " " + large, large <= 3 * small);
+		assertTrue(String.valueOf(large), large <= 3 * 16);
+	}
+
+	@Test
+	public void totalsFollowSpine()
+	{
+		int count = 1 << 14;
+		DirectoryVersion wide = wide("wide", count);
+		DirectoryVersion middle = new DirectoryVersion("middle").withDir(wide);
+		DirectoryVersion root = new DirectoryVersion("root").withDir(middle).withFile(new FileVersion("top"));
+		assertEquals(3, root.getTotalDirs());
+		assertEquals(count + 1, root.getTotalFiles());
+
+		//  :       
+		Content content = Content.EMPTY.write(0, ByteBuffer.wrap(new byte[] {1, 2, 3}));
+		DirectoryVersion wide2 = wide.withFile(new FileVersion("f1", content));
+		DirectoryVersion middle2 = middle.withDir(wide2);
+		DirectoryVersion root2 = root.withDir(middle2);
+		assertEquals(count + 1, root2.getTotalFiles());
+		assertEquals(1, fresh(root2.dirs, root.dirs));
+		assertEquals(1, fresh(middle2.dirs, middle.dirs));
+		assertTrue(fresh(wide2.files, wide.files) <= 3 * 14);
+
+		//      
+		DirectoryVersion root3 = root2.withDir(middle2.withoutDir("wide")).withoutFile("top");
+		assertEquals(1, root3.getTotalDirs());
+		assertEquals(0, root3.getTotalFiles());
+		DirectoryVersion root4 = root3.withFile(new FileVersion("top")).withDir(middle2.withDir(wide2.withoutFile("f1")));
+		assertEquals(3, root4.getTotalDirs());
+		assertEquals(count, root4.getTotalFiles());
+		content.release();
+	}
+}
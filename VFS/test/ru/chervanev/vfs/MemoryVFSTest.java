@@ -0,0 +1,66 @@
+package ru.chervanev.vfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+/**
+ *    :      ,
+ *           .
+ */
+public class MemoryVFSTest
+{
+	@Test
+	public void deepPathIsIndexedAfterRestart() throws IOException, FileSystemException
+	{
+		java.io.File dir = Files.createTempDirectory("vfs").toFile();
+		try
+		{
+			String journal = new java.io.File(dir, "journal").getPath();
+			MemoryVFS fs = new MemoryVFS();
+			fs.openJournal(journal);
+			StringBuilder path = new StringBuilder("c:");
+			for (int i = 0; i < 8; i++)
+			{
+				path.append("\\d").append(i);
+				fs.md(path.toString());
+			}
+			String deepDir = path.toString();
+			String deepFile = deepDir + "\\f";
+			fs.mf(deepFile);
+			fs.write(deepFile, "u", 0, ByteBuffer.wrap(new byte[] {1, 2, 3}));
+			assertTrue(fs.checkpoint());
+
+			MemoryVFS restarted = new MemoryVFS();
+			restarted.openJournal(journal);
+			assertFalse(restarted.isIndexed(deepFile));
+			assertFalse(restarted.isIndexed(deepDir));
+
+			//      
+			assertEquals(3, restarted.read(deepFile, 0, ByteBuffer.allocate(16)));
+			assertTrue(restarted.isIndexed(deepFile));
+			restarted.mf(deepDir + "\\g");
+			assertTrue(restarted.isIndexed(deepDir));
+			assertTrue(restarted.isIndexed(deepDir + "\\g"));
+			assertSame(restarted.findDir(deepDir).findFile("f"), restarted.findFile(deepFile));
+
+			//     
+			restarted.delTree("c:\\d0\\d1");
+			assertFalse(restarted.isIndexed(deepFile));
+			assertFalse(restarted.isIndexed(deepDir));
+		}
+		finally
+		{
+			for (java.io.File file : dir.listFiles())
+				file.delete();
+			dir.delete();
+		}
+	}
+}